@@ -0,0 +1,51 @@
+package devoldefy;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DescriptorRemapBenchmark {
+    @Param({"2000", "10000"})
+    public int classCount;
+    
+    private List<String> descriptors;
+    private Map<String, String> classes;
+    
+    @Setup
+    public void setup() throws IOException {
+        SyntheticData data = SyntheticData.generate(classCount);
+        descriptors = data.methodDescriptors();
+        classes = Devoldefy.readYarnV1(
+            new ByteArrayInputStream(data.tinyV1),
+            "official",
+            "named",
+            new SymbolTable()
+        ).classes;
+    }
+    
+    @Benchmark
+    public void remapMethodDescriptors(Blackhole blackhole) {
+        for (String descriptor : descriptors) {
+            blackhole.consume(DescriptorRemapper.remap(descriptor, classes));
+        }
+    }
+    
+    @Benchmark
+    public void remapMethodDescriptorsCached(Blackhole blackhole) {
+        DescriptorRemapper remapper = new DescriptorRemapper(classes);
+        for (String descriptor : descriptors) {
+            blackhole.consume(remapper.remap(descriptor));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package devoldefy;
+
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.impl.MappingSetImpl;
+import org.cadixdev.lorenz.impl.MappingSetModelFactoryImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MappingChainBenchmark {
+    @Param({"2000", "10000"})
+    public int classCount;
+    
+    private Mappings srg;
+    private Mappings yarn;
+    private Mappings chained;
+    
+    @Setup
+    public void setup() throws IOException {
+        SyntheticData data = SyntheticData.generate(classCount);
+        SymbolTable symbols = new SymbolTable();
+        srg = Devoldefy.readTsrg(
+            new ByteArrayInputStream(data.tsrg),
+            Devoldefy.readCsv(new ByteArrayInputStream(data.fieldsCsv)),
+            Devoldefy.readCsv(new ByteArrayInputStream(data.methodsCsv)),
+            symbols
+        );
+        yarn = Devoldefy.readYarnV2(
+            new ByteArrayInputStream(data.tinyMergedV2),
+            "official",
+            "named",
+            symbols
+        );
+        chained = srg.invert().chain(yarn, false);
+    }
+    
+    @Benchmark
+    public Mappings chain() {
+        return srg.invert().chain(yarn, false);
+    }
+    
+    @Benchmark
+    public Mappings invert() {
+        return chained.invert();
+    }
+    
+    @Benchmark
+    public Mappings chainInverted() {
+        Mappings result = new Mappings(srg.symbols);
+        Mappings.chainInverted(srg, yarn, false, result);
+        return result;
+    }
+    
+    @Benchmark
+    public MappingSet buildMappingSet() {
+        MappingSet mappingSet = new MappingSetImpl(new MappingSetModelFactoryImpl());
+        Mappings.chainInverted(srg, yarn, false, new MappingSetBuilder(mappingSet));
+        return mappingSet;
+    }
+}
@@ -0,0 +1,65 @@
+package devoldefy;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MappingReadBenchmark {
+    @Param({"2000", "10000"})
+    public int classCount;
+    
+    private SyntheticData data;
+    private Map<String, String> fieldNames;
+    private Map<String, String> methodNames;
+    
+    @Setup
+    public void setup() throws IOException {
+        data = SyntheticData.generate(classCount);
+        fieldNames = Devoldefy.readCsv(new ByteArrayInputStream(data.fieldsCsv));
+        methodNames = Devoldefy.readCsv(new ByteArrayInputStream(data.methodsCsv));
+    }
+    
+    @Benchmark
+    public Mappings readTsrg() throws IOException {
+        return Devoldefy.readTsrg(
+            new ByteArrayInputStream(data.tsrg),
+            fieldNames,
+            methodNames,
+            new SymbolTable()
+        );
+    }
+    
+    @Benchmark
+    public Map<String, String> readCsv() throws IOException {
+        return Devoldefy.readCsv(new ByteArrayInputStream(data.methodsCsv));
+    }
+    
+    @Benchmark
+    public Mappings readYarnV1() throws IOException {
+        return Devoldefy.readYarnV1(
+            new ByteArrayInputStream(data.tinyV1),
+            "official",
+            "named",
+            new SymbolTable()
+        );
+    }
+    
+    @Benchmark
+    public Mappings readYarnV2() throws IOException {
+        return Devoldefy.readYarnV2(
+            new ByteArrayInputStream(data.tinyMergedV2),
+            "official",
+            "named",
+            new SymbolTable()
+        );
+    }
+}
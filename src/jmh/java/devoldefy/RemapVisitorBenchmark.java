@@ -0,0 +1,83 @@
+package devoldefy;
+
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.impl.MappingSetImpl;
+import org.cadixdev.lorenz.impl.MappingSetModelFactoryImpl;
+import org.cadixdev.mercury.Mercury;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses, binds and rewrites a synthetic mod against synthetic game sources.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RemapVisitorBenchmark {
+    @Param({"200"})
+    public int modFiles;
+    
+    private Mappings srg;
+    private Mappings yarn;
+    private Path gameSources;
+    private Path modSources;
+    private Path output;
+    private MappingSet mappingSet;
+    
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        SyntheticData data = SyntheticData.generate(500);
+        SymbolTable symbols = new SymbolTable();
+        srg = Devoldefy.readTsrg(
+            new ByteArrayInputStream(data.tsrg),
+            Devoldefy.readCsv(new ByteArrayInputStream(data.fieldsCsv)),
+            Devoldefy.readCsv(new ByteArrayInputStream(data.methodsCsv)),
+            symbols
+        );
+        yarn = Devoldefy.readYarnV2(
+            new ByteArrayInputStream(data.tinyMergedV2),
+            "official",
+            "named",
+            symbols
+        );
+        
+        gameSources = Files.createTempDirectory("devoldefy-game");
+        modSources = Files.createTempDirectory("devoldefy-mod");
+        output = Files.createTempDirectory("devoldefy-output");
+        data.writeGameSources(gameSources);
+        data.writeModSources(modSources, modFiles);
+    }
+    
+    /**
+     * The visitors complete class mappings as they go, so every run starts from a fresh mapping set.
+     */
+    @Setup(Level.Invocation)
+    public void createMappingSet() {
+        mappingSet = new MappingSetImpl(new MappingSetModelFactoryImpl());
+        Mappings.chainInverted(srg, yarn, false, new MappingSetBuilder(mappingSet));
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Devoldefy.deleteDirectory(gameSources);
+        Devoldefy.deleteDirectory(modSources);
+        Devoldefy.deleteDirectory(output);
+    }
+    
+    @Benchmark
+    public void remap() throws Exception {
+        Mercury mercury = new Mercury();
+        mercury.setGracefulClasspathChecks(true);
+        mercury.getSourcePath().add(gameSources);
+        mercury.getProcessors().add(new MyRemapper(mappingSet));
+        mercury.rewrite(modSources, output);
+    }
+}
@@ -0,0 +1,262 @@
+package devoldefy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates mapping files and source code shaped like the real ones,
+ * so the benchmarks run offline and always see the same input.
+ * <p>
+ * Class i is called o{i} when obfuscated, net/minecraft/p{i % 20}/C{i} in MCP
+ * and net/minecraft/n{i % 20}/Named{i} in Yarn.
+ */
+final class SyntheticData {
+    static final int FIELDS_PER_CLASS = 5;
+    static final int METHODS_PER_CLASS = 10;
+    
+    final int classCount;
+    final byte[] tsrg;
+    final byte[] fieldsCsv;
+    final byte[] methodsCsv;
+    final byte[] tinyV1;
+    /**
+     * Shaped like mappings.tiny in Yarn's mergedv2 jar, the one Devoldefy reads.
+     * The plain v2 jar has no official namespace.
+     */
+    final byte[] tinyMergedV2;
+    
+    /**
+     * Obfuscated method descriptors by class and method.
+     */
+    private final String[][] descriptors;
+    
+    private SyntheticData(int classCount, long seed) {
+        this.classCount = classCount;
+        
+        Random random = new Random(seed);
+        descriptors = new String[classCount][METHODS_PER_CLASS];
+        for (int i = 0; i < classCount; i++) {
+            for (int j = 0; j < METHODS_PER_CLASS; j++) {
+                StringBuilder descriptor = new StringBuilder("(");
+                int parameters = random.nextInt(4);
+                for (int k = 0; k < parameters; k++) {
+                    if (random.nextBoolean()) {
+                        descriptor.append('I');
+                    }
+                    else {
+                        descriptor.append("Lo").append(random.nextInt(classCount)).append(';');
+                    }
+                }
+                descriptor.append(')').append(random.nextBoolean() ? 'V' : 'I');
+                descriptors[i][j] = descriptor.toString();
+            }
+        }
+        
+        StringBuilder tsrg = new StringBuilder();
+        StringBuilder fields = new StringBuilder("searge,name,side,desc\n");
+        StringBuilder methods = new StringBuilder("searge,name,side,desc\n");
+        StringBuilder v1 = new StringBuilder("v1\tofficial\tintermediary\tnamed\n");
+        StringBuilder v2 = new StringBuilder("tiny\t2\t0\tofficial\tintermediary\tnamed\n");
+        
+        for (int i = 0; i < classCount; i++) {
+            tsrg.append("o").append(i).append(' ').append(mcpClass(i)).append('\n');
+            v1.append("CLASS\to").append(i).append("\tnet/minecraft/class_").append(i)
+                .append('\t').append(yarnClass(i)).append('\n');
+            v2.append("c\to").append(i).append("\tnet/minecraft/class_").append(i)
+                .append('\t').append(yarnClass(i)).append('\n');
+            
+            for (int j = 0; j < FIELDS_PER_CLASS; j++) {
+                int id = i * 100 + j;
+                tsrg.append("\tf").append(j).append(" field_").append(id).append("_a\n");
+                fields.append("field_").append(id).append("_a,").append(mcpField(i, j))
+                    .append(",2,\"A field, with a comma in its \"\"doc\"\"\"\n");
+                v1.append("FIELD\to").append(i).append("\tI\tf").append(j).append("\tfield_").append(id)
+                    .append('\t').append(yarnField(i, j)).append('\n');
+                v2.append("\tf\tI\tf").append(j).append("\tfield_").append(id)
+                    .append('\t').append(yarnField(i, j)).append('\n');
+            }
+            
+            for (int j = 0; j < METHODS_PER_CLASS; j++) {
+                int id = i * 100 + 50 + j;
+                String descriptor = descriptors[i][j];
+                tsrg.append("\tm").append(j).append(' ').append(descriptor)
+                    .append(" func_").append(id).append("_a\n");
+                methods.append("func_").append(id).append("_a,").append(mcpMethod(i, j))
+                    .append(",2,Does something\n");
+                v1.append("METHOD\to").append(i).append('\t').append(descriptor).append("\tm").append(j)
+                    .append("\tmethod_").append(id).append('\t').append(yarnMethod(i, j)).append('\n');
+                v2.append("\tm\t").append(descriptor).append("\tm").append(j)
+                    .append("\tmethod_").append(id).append('\t').append(yarnMethod(i, j)).append('\n');
+                
+                int index = 1;
+                for (String type : parameterTypes(descriptor)) {
+                    v2.append("\t\tp\t").append(index).append("\t\t\tparameter").append(index).append('\n');
+                    index += type.equals("J") || type.equals("D") ? 2 : 1;
+                }
+            }
+        }
+        
+        this.tsrg = bytes(tsrg);
+        this.fieldsCsv = bytes(fields);
+        this.methodsCsv = bytes(methods);
+        this.tinyV1 = bytes(v1);
+        this.tinyMergedV2 = bytes(v2);
+    }
+    
+    static SyntheticData generate(int classCount) {
+        return new SyntheticData(classCount, 42);
+    }
+    
+    static String mcpClass(int i) {
+        return "net/minecraft/p" + (i % 20) + "/C" + i;
+    }
+    
+    static String yarnClass(int i) {
+        return "net/minecraft/n" + (i % 20) + "/Named" + i;
+    }
+    
+    static String mcpField(int i, int j) {
+        return "mcpField" + i + "_" + j;
+    }
+    
+    static String yarnField(int i, int j) {
+        return "namedField" + i + "_" + j;
+    }
+    
+    static String mcpMethod(int i, int j) {
+        return "mcpMethod" + i + "_" + j;
+    }
+    
+    static String yarnMethod(int i, int j) {
+        return "namedMethod" + i + "_" + j;
+    }
+    
+    /**
+     * All obfuscated method descriptors, with repetitions like in the real mappings.
+     */
+    List<String> methodDescriptors() {
+        List<String> result = new ArrayList<>();
+        for (String[] classDescriptors : descriptors) {
+            for (String descriptor : classDescriptors) {
+                result.add(descriptor);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Writes the game classes with their MCP names, to resolve the bindings of the mod sources against.
+     */
+    void writeGameSources(Path root) throws IOException {
+        for (int i = 0; i < classCount; i++) {
+            StringBuilder source = new StringBuilder();
+            String name = mcpClass(i);
+            source.append("package ").append(name.substring(0, name.lastIndexOf('/')).replace('/', '.'))
+                .append(";\n\npublic class C").append(i).append(" {\n");
+            
+            for (int j = 0; j < FIELDS_PER_CLASS; j++) {
+                source.append("    public int ").append(mcpField(i, j)).append(";\n");
+            }
+            
+            for (int j = 0; j < METHODS_PER_CLASS; j++) {
+                appendMethodHeader(source, i, j);
+                source.append(descriptors[i][j].endsWith("V") ? " {\n    }\n" : " {\n        return 0;\n    }\n");
+            }
+            
+            source.append("}\n");
+            write(root, name + ".java", source);
+        }
+    }
+    
+    /**
+     * Writes mod classes that extend game classes, override their methods
+     * and use their fields and methods.
+     */
+    void writeModSources(Path root, int count) throws IOException {
+        Random random = new Random(7);
+        for (int k = 0; k < count; k++) {
+            int parent = random.nextInt(classCount);
+            int other = random.nextInt(classCount);
+            
+            StringBuilder source = new StringBuilder();
+            source.append("package mod.p").append(k % 10).append(";\n\n")
+                .append("import ").append(mcpClass(other).replace('/', '.')).append(";\n\n")
+                .append("public class ModClass").append(k).append(" extends ")
+                .append(mcpClass(parent).replace('/', '.')).append(" {\n");
+            
+            int overridden = random.nextInt(METHODS_PER_CLASS);
+            source.append("    @Override\n");
+            appendMethodHeader(source, parent, overridden);
+            source.append(" {\n");
+            if (!descriptors[parent][overridden].endsWith("V")) {
+                source.append("        return ").append(mcpField(parent, 0)).append(";\n");
+            }
+            source.append("    }\n\n");
+            
+            source.append("    public int use(C").append(other).append(" other) {\n");
+            for (int j = 0; j < METHODS_PER_CLASS; j += 3) {
+                source.append("        other.").append(mcpMethod(other, j)).append('(');
+                List<String> types = parameterTypes(descriptors[other][j]);
+                for (int p = 0; p < types.size(); p++) {
+                    if (p > 0) {
+                        source.append(", ");
+                    }
+                    source.append(types.get(p).equals("I") ? "0" : "(" + javaType(types.get(p)) + ") null");
+                }
+                source.append(");\n");
+            }
+            source.append("        ").append(mcpField(parent, 1)).append(" = other.")
+                .append(mcpField(other, 2)).append(";\n");
+            source.append("        return ").append(mcpField(parent, 1)).append(";\n    }\n}\n");
+            
+            write(root, "mod/p" + (k % 10) + "/ModClass" + k + ".java", source);
+        }
+    }
+    
+    private void appendMethodHeader(StringBuilder source, int i, int j) {
+        String descriptor = descriptors[i][j];
+        source.append("    public ").append(descriptor.endsWith("V") ? "void " : "int ")
+            .append(mcpMethod(i, j)).append('(');
+        List<String> types = parameterTypes(descriptor);
+        for (int p = 0; p < types.size(); p++) {
+            if (p > 0) {
+                source.append(", ");
+            }
+            source.append(javaType(types.get(p))).append(" arg").append(p);
+        }
+        source.append(')');
+    }
+    
+    private static String javaType(String type) {
+        if (type.equals("I")) {
+            return "int";
+        }
+        return mcpClass(Integer.parseInt(type.substring(2, type.length() - 1))).replace('/', '.');
+    }
+    
+    private static List<String> parameterTypes(String descriptor) {
+        List<String> types = new ArrayList<>();
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            int end = descriptor.charAt(i) == 'L' ? descriptor.indexOf(';', i) + 1 : i + 1;
+            types.add(descriptor.substring(i, end));
+            i = end;
+        }
+        return types;
+    }
+    
+    private static void write(Path root, String path, StringBuilder source) throws IOException {
+        Path file = root.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, bytes(source));
+    }
+    
+    private static byte[] bytes(StringBuilder text) {
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
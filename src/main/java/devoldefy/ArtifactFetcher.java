@@ -0,0 +1,305 @@
+package devoldefy;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads mapping artifacts into the cache directory.
+ * Every file is written to a temporary file first and only moved into place after its size
+ * and, when the server publishes one, its sha1 checksum matched. The sha1 of each finished
+ * download is kept next to it, so a damaged cached file is noticed and fetched again.
+ * A mirror root, either a local directory or an URL, is tried before the original location.
+ */
+class ArtifactFetcher {
+    // Fetchers of concurrent jobs may share a directory, only one of them downloads each file.
+    // Jobs in other processes are kept out by a file lock, which does not work between threads of one process.
+    private static final StripedLocks FILE_LOCKS = new StripedLocks(64);
+    
+    private final File directory;
+    private final String mirror;
+    
+    /**
+     * @param mirror null, a directory, a file: URL or an http(s) URL
+     */
+    ArtifactFetcher(File directory, String mirror) {
+        this.directory = directory;
+        this.mirror = mirror;
+    }
+    
+    /**
+     * Fetches all urls at the same time.
+     */
+    Map<String, File> fetchAll(Collection<String> urls) throws IOException {
+        return fetchAll(urls, Collections.emptySet());
+    }
+    
+    /**
+     * Fetches all urls at the same time. Optional urls that do not exist at any location are
+     * left out of the result, every other failure is thrown.
+     */
+    Map<String, File> fetchAll(Collection<String> urls, Collection<String> optional) throws IOException {
+        Set<String> distinct = new LinkedHashSet<>(urls);
+        ExecutorService executor = Executors.newFixedThreadPool(distinct.size());
+        try {
+            Map<String, Future<File>> futures = new LinkedHashMap<>();
+            for (String url : distinct) {
+                futures.put(url, executor.submit(() -> fetch(url)));
+            }
+            
+            Map<String, File> result = new LinkedHashMap<>();
+            for (Map.Entry<String, Future<File>> entry : futures.entrySet()) {
+                try {
+                    result.put(entry.getKey(), entry.getValue().get());
+                }
+                catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof FileNotFoundException && optional.contains(entry.getKey())) {
+                        continue;
+                    }
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    throw new IOException("Cannot fetch " + entry.getKey(), cause);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            return result;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * @throws FileNotFoundException if no location has the file
+     */
+    File fetch(String url) throws IOException {
+        File file = cacheFile(url);
+        file.getParentFile().mkdirs();
+        synchronized (FILE_LOCKS.get(file.getAbsolutePath())) {
+            try (
+                FileChannel channel = FileChannel.open(
+                    new File(file.getPath() + ".lock").toPath(),
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE
+                );
+                FileLock ignored = channel.lock()
+            ) {
+                return fetch(url, file);
+            }
+        }
+    }
+    
+    /**
+     * The file names alone are not unique (every MCPConfig version is a joined.tsrg),
+     * so files are kept by the host and full path of their url.
+     */
+    File cacheFile(String url) {
+        URI uri = URI.create(url).normalize();
+        File file = new File(directory, uri.getHost() == null ? "local" : uri.getHost().replace(':', '_'));
+        for (String segment : uri.getPath().split("/")) {
+            if (!segment.isEmpty() && !segment.equals("..") && !segment.equals(".")) {
+                file = new File(file, segment);
+            }
+        }
+        return file;
+    }
+    
+    private File fetch(String url, File file) throws IOException {
+        File checksumFile = new File(file.getPath() + ".sha1");
+        
+        if (file.exists() && checksumFile.exists()) {
+            String expected = new String(
+                Files.readAllBytes(checksumFile.toPath()),
+                StandardCharsets.UTF_8
+            ).trim();
+            if (expected.equals(sha1(file))) {
+                return file;
+            }
+            System.err.println("Cached " + file + " is damaged, downloading it again");
+        }
+        
+        List<String> sources = new ArrayList<>();
+        if (mirror != null && !mirror.isEmpty()) {
+            sources.addAll(mirrorLocations(url));
+        }
+        sources.add(url);
+        
+        IOException failure = null;
+        boolean missing = true;
+        for (String source : sources) {
+            try {
+                download(source, file, checksumFile);
+                return file;
+            }
+            catch (IOException e) {
+                missing &= e instanceof FileNotFoundException;
+                if (failure == null) {
+                    failure = e;
+                }
+                else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        
+        if (file.exists()) {
+            System.err.println("Cannot verify " + file + ", using it anyway. " + failure);
+            return file;
+        }
+        
+        if (missing && !(failure instanceof FileNotFoundException)) {
+            FileNotFoundException notFound = new FileNotFoundException("Cannot find " + url);
+            notFound.addSuppressed(failure);
+            throw notFound;
+        }
+        throw failure;
+    }
+    
+    /**
+     * The mirror may keep the path of the original url or just the file names.
+     */
+    private List<String> mirrorLocations(String url) {
+        String root = mirror.endsWith("/") ? mirror.substring(0, mirror.length() - 1) : mirror;
+        if (!root.contains("://")) {
+            root = Paths.get(root).toUri().toString();
+            root = root.endsWith("/") ? root.substring(0, root.length() - 1) : root;
+        }
+        
+        String path = URI.create(url).getPath();
+        String fileName = path.substring(path.lastIndexOf('/') + 1);
+        return Arrays.asList(root + path, root + "/" + fileName);
+    }
+    
+    private void download(String source, File file, File checksumFile) throws IOException {
+        System.out.println("downloading " + source);
+        
+        URLConnection connection = new URL(source).openConnection();
+        if (connection instanceof HttpURLConnection) {
+            int code = ((HttpURLConnection) connection).getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_FOUND) {
+                throw new FileNotFoundException("HTTP 404 for " + source);
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + code + " for " + source);
+            }
+        }
+        long expectedSize = connection.getContentLengthLong();
+        
+        Path temp = Files.createTempFile(file.getParentFile().toPath(), file.getName(), ".part");
+        try {
+            MessageDigest digest = newSha1();
+            long size = 0;
+            try (
+                InputStream in = connection.getInputStream();
+                OutputStream out = Files.newOutputStream(temp)
+            ) {
+                byte[] buffer = new byte[1 << 16];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                    size += read;
+                }
+            }
+            
+            if (expectedSize != -1 && size != expectedSize) {
+                throw new IOException(
+                    "Incomplete download of " + source + ", got " + size + " of " + expectedSize + " bytes"
+                );
+            }
+            
+            String checksum = Devoldefy.toHex(digest.digest());
+            String published = publishedChecksum(source);
+            if (published != null && !published.equalsIgnoreCase(checksum)) {
+                throw new IOException("Checksum mismatch for " + source);
+            }
+            
+            move(temp, file.toPath());
+            Files.write(checksumFile.toPath(), checksum.getBytes(StandardCharsets.UTF_8));
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+    
+    /**
+     * Maven repositories publish a .sha1 file next to every artifact.
+     */
+    private static String publishedChecksum(String source) {
+        try {
+            URLConnection connection = new URL(source + ".sha1").openConnection();
+            if (connection instanceof HttpURLConnection &&
+                ((HttpURLConnection) connection).getResponseCode() != HttpURLConnection.HTTP_OK
+            ) {
+                return null;
+            }
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                connection.getInputStream(),
+                StandardCharsets.UTF_8
+            ))) {
+                String line = reader.readLine();
+                if (line == null || line.trim().isEmpty()) {
+                    return null;
+                }
+                // some repositories append the file name
+                return line.trim().split("\\s+")[0];
+            }
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+    
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    private static String sha1(File file) throws IOException {
+        MessageDigest digest = newSha1();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[1 << 16];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return Devoldefy.toHex(digest.digest());
+    }
+    
+    private static MessageDigest newSha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package devoldefy;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The compact binary form of a mapping used by the mapping cache.
+ * It is written and read as a stream of entries, so neither side needs the whole
+ * mapping in memory. A string is written the first time it appears and referred
+ * to by index afterwards.
+ */
+class BinaryMappings {
+    private static final int MAGIC = 0x44564d33;
+    
+    private static final int END = 0;
+    private static final int CLASS = 1;
+    private static final int FIELD = 2;
+    private static final int METHOD = 3;
+    private static final int PARAMETER = 4;
+    
+    interface Producer {
+        void produce(MappingConsumer consumer) throws IOException;
+    }
+    
+    /**
+     * Writes everything the producer emits, replacing the file only when writing succeeded.
+     *
+     * @return the number of class entries written
+     */
+    static int write(File file, Producer producer) throws IOException {
+        file.getParentFile().mkdirs();
+        // Other jobs may be reading the file, so the new one is written next to it and moved over it in one step
+        File temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        
+        Writer writer;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(temp)
+        ))) {
+            out.writeInt(MAGIC);
+            writer = new Writer(out);
+            try {
+                producer.produce(writer);
+            }
+            catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            out.writeByte(END);
+        }
+        catch (IOException | RuntimeException e) {
+            temp.delete();
+            throw e;
+        }
+        
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return writer.classCount;
+    }
+    
+    static void read(File file, MappingConsumer consumer) throws IOException {
+        try (DataInputStream in = open(file)) {
+            List<String> symbols = new ArrayList<>();
+            while (true) {
+                int tag = in.readUnsignedByte();
+                switch (tag) {
+                    case END:
+                        return;
+                    case CLASS:
+                        consumer.acceptClass(readSymbol(in, symbols), readSymbol(in, symbols));
+                        break;
+                    case FIELD:
+                        consumer.acceptField(readMember(in, symbols), readMember(in, symbols));
+                        break;
+                    case METHOD:
+                        consumer.acceptMethod(readMember(in, symbols), readMember(in, symbols));
+                        break;
+                    case PARAMETER:
+                        consumer.acceptParameter(
+                            readMember(in, symbols),
+                            readVarInt(in),
+                            readSymbol(in, symbols)
+                        );
+                        break;
+                    default:
+                        throw new IOException("Corrupted mapping cache file " + file);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Only checks the header, the rest is read when the mapping is used.
+     */
+    static void verify(File file) throws IOException {
+        open(file).close();
+    }
+    
+    private static DataInputStream open(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(file),
+            1 << 16
+        ));
+        if (in.readInt() != MAGIC) {
+            in.close();
+            throw new IOException("Not a mapping cache file " + file);
+        }
+        return in;
+    }
+    
+    private static Member readMember(DataInputStream in, List<String> symbols) throws IOException {
+        return new Member(readSymbol(in, symbols), readSymbol(in, symbols), readSymbol(in, symbols));
+    }
+    
+    private static String readSymbol(DataInputStream in, List<String> symbols) throws IOException {
+        int index = readVarInt(in);
+        if (index == 0) {
+            return null;
+        }
+        if (index == symbols.size() + 1) {
+            symbols.add(in.readUTF());
+        }
+        return symbols.get(index - 1);
+    }
+    
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+    
+    private static class Writer implements MappingConsumer {
+        private final DataOutputStream out;
+        private final Map<String, Integer> symbols = new HashMap<>();
+        int classCount;
+        
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+        
+        @Override
+        public void acceptClass(String from, String to) {
+            try {
+                out.writeByte(CLASS);
+                writeSymbol(from);
+                writeSymbol(to);
+                classCount++;
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        
+        @Override
+        public void acceptField(Member from, Member to) {
+            writeEntry(FIELD, from, to);
+        }
+        
+        @Override
+        public void acceptMethod(Member from, Member to) {
+            writeEntry(METHOD, from, to);
+        }
+        
+        @Override
+        public void acceptParameter(Member method, int index, String name) {
+            try {
+                out.writeByte(PARAMETER);
+                writeMember(method);
+                writeVarInt(index);
+                writeSymbol(name);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        
+        private void writeEntry(int tag, Member from, Member to) {
+            try {
+                out.writeByte(tag);
+                writeMember(from);
+                writeMember(to);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        
+        private void writeMember(Member member) throws IOException {
+            writeSymbol(member.owner);
+            writeSymbol(member.name);
+            writeSymbol(member.descriptor);
+        }
+        
+        private void writeSymbol(String symbol) throws IOException {
+            if (symbol == null) {
+                writeVarInt(0);
+                return;
+            }
+            
+            Integer index = symbols.get(symbol);
+            if (index != null) {
+                writeVarInt(index);
+                return;
+            }
+            
+            index = symbols.size() + 1;
+            symbols.put(symbol, index);
+            writeVarInt(index);
+            out.writeUTF(symbol);
+        }
+        
+        private void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7f) != 0) {
+                out.writeByte((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+    }
+}
@@ -0,0 +1,463 @@
+package devoldefy;
+
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.cadixdev.bombe.analysis.InheritanceType;
+import org.cadixdev.bombe.type.signature.FieldSignature;
+import org.cadixdev.bombe.type.signature.MethodSignature;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Superclass, interfaces, fields and methods of every class in the classpath jars,
+ * read from the class files once and cached per jar content in the cache directory.
+ */
+class ClassHierarchyIndex implements InheritanceProvider {
+    private static final int MAGIC = 0x44564832;
+    private static final int ACC_INTERFACE = 0x0200;
+    
+    private final Map<String, ClassEntry> classes = new HashMap<>();
+    private final Map<String, Path> origins = new HashMap<>();
+    private final Map<String, Set<Path>> packages = new HashMap<>();
+    private final Map<String, List<String>> packageClasses = new HashMap<>();
+    private final Map<String, Optional<ClassInfo>> infos = new ConcurrentHashMap<>();
+    
+    private static class ClassEntry {
+        String name;
+        int access;
+        String superName;
+        List<String> interfaces = new ArrayList<>();
+        List<MemberEntry> fields = new ArrayList<>();
+        List<MemberEntry> methods = new ArrayList<>();
+    }
+    
+    private static class MemberEntry {
+        final int access;
+        final String name;
+        final String descriptor;
+        
+        MemberEntry(int access, String name, String descriptor) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+    }
+    
+    static ClassHierarchyIndex load(List<Path> classpath, File cacheFileDir) throws IOException {
+        ClassHierarchyIndex index = new ClassHierarchyIndex();
+        File hashFile = new File(cacheFileDir, "hierarchy_jars.txt");
+        Map<String, String[]> jarHashes = readJarHashes(hashFile);
+        boolean hashesChanged = false;
+        int scanned = 0;
+        for (Path jar : classpath) {
+            if (!Files.isRegularFile(jar)) {
+                continue;
+            }
+            
+            // Hashing the game jars takes a while, so it is only done when their size or time changed
+            String path = jar.toAbsolutePath().toString();
+            String stamp = stamp(jar);
+            String[] known = jarHashes.get(path);
+            String hash;
+            if (known != null && known[0].equals(stamp)) {
+                hash = known[1];
+            }
+            else {
+                hash = hashJar(jar);
+                jarHashes.put(path, new String[]{stamp, hash});
+                hashesChanged = true;
+            }
+            
+            File cacheFile = new File(cacheFileDir, "hierarchy_" + hash.substring(0, 16) + ".bin");
+            List<ClassEntry> entries = null;
+            if (cacheFile.exists()) {
+                try {
+                    entries = readCache(cacheFile);
+                }
+                catch (IOException e) {
+                    System.err.println("Cannot read hierarchy cache " + cacheFile + ", rebuilding it. " + e);
+                }
+            }
+            if (entries == null) {
+                entries = scanJar(jar);
+                writeCache(cacheFile, entries);
+                scanned++;
+            }
+            
+            for (ClassEntry entry : entries) {
+                // Earlier classpath entries win, like on a real classpath
+                if (index.classes.putIfAbsent(entry.name, entry) == null) {
+                    index.origins.put(entry.name, jar);
+                    index.packageClasses.computeIfAbsent(packageOf(entry.name), k -> new ArrayList<>()).add(entry.name);
+                }
+                index.packages.computeIfAbsent(packageOf(entry.name), k -> new LinkedHashSet<>()).add(jar);
+            }
+        }
+        
+        if (hashesChanged) {
+            writeJarHashes(hashFile, jarHashes);
+        }
+        
+        System.out.println("Class hierarchy index: " + index.classes.size() + " classes, " +
+            scanned + " of " + classpath.size() + " classpath entries scanned");
+        return index;
+    }
+    
+    @Override
+    public Optional<ClassInfo> provide(String klass) {
+        return infos.computeIfAbsent(klass.replace('.', '/'), name -> {
+            ClassEntry entry = classes.get(name);
+            return entry != null ? Optional.of(new IndexedClassInfo(entry)) : Optional.empty();
+        });
+    }
+    
+    boolean contains(String className) {
+        return classes.containsKey(className);
+    }
+    
+    /**
+     * @return the classpath entry that provides the class, or null
+     */
+    Path origin(String className) {
+        return origins.get(className);
+    }
+    
+    /**
+     * @return all classpath entries that have classes in the package
+     */
+    Set<Path> packageOrigins(String packageName) {
+        return packages.getOrDefault(packageName, Collections.emptySet());
+    }
+    
+    /**
+     * @return the classes of the package
+     */
+    List<String> packageClasses(String packageName) {
+        return packageClasses.getOrDefault(packageName, Collections.emptyList());
+    }
+    
+    /**
+     * @return the classes that are provided by one of the given classpath entries
+     */
+    Set<String> classesFrom(Collection<Path> entries) {
+        Set<String> result = new HashSet<>();
+        origins.forEach((name, origin) -> {
+            if (entries.contains(origin)) {
+                result.add(name);
+            }
+        });
+        return result;
+    }
+    
+    /**
+     * @return the classes the compiler may need to load together with the given class:
+     * its supertypes and the types in the signatures of its members
+     */
+    Set<String> referencedClasses(String className) {
+        ClassEntry entry = classes.get(className);
+        if (entry == null) {
+            return Collections.emptySet();
+        }
+        
+        Set<String> result = new HashSet<>();
+        if (entry.superName != null) {
+            result.add(entry.superName);
+        }
+        result.addAll(entry.interfaces);
+        for (MemberEntry field : entry.fields) {
+            addDescriptorClasses(field.descriptor, result);
+        }
+        for (MemberEntry method : entry.methods) {
+            addDescriptorClasses(method.descriptor, result);
+        }
+        return result;
+    }
+    
+    private static void addDescriptorClasses(String descriptor, Set<String> result) {
+        int start = descriptor.indexOf('L');
+        while (start != -1) {
+            int end = descriptor.indexOf(';', start);
+            result.add(descriptor.substring(start + 1, end));
+            start = descriptor.indexOf('L', end);
+        }
+    }
+    
+    static String packageOf(String className) {
+        int slash = className.lastIndexOf('/');
+        return slash == -1 ? "" : className.substring(0, slash);
+    }
+    
+    /**
+     * Classes of the source tree are not in the index, so they are looked up in the fallback.
+     */
+    InheritanceProvider withFallback(InheritanceProvider fallback) {
+        ClassHierarchyIndex index = this;
+        return new InheritanceProvider() {
+            @Override
+            public Optional<ClassInfo> provide(String klass) {
+                Optional<ClassInfo> info = index.provide(klass);
+                return info.isPresent() ? info : fallback.provide(klass);
+            }
+            
+            @Override
+            public Optional<ClassInfo> provide(String klass, Object context) {
+                Optional<ClassInfo> info = index.provide(klass);
+                return info.isPresent() ? info : fallback.provide(klass, context);
+            }
+        };
+    }
+    
+    private static class IndexedClassInfo extends ClassInfo.Impl {
+        IndexedClassInfo(ClassEntry entry) {
+            super(
+                entry.name,
+                (entry.access & ACC_INTERFACE) != 0,
+                entry.superName,
+                entry.interfaces
+            );
+            for (MemberEntry field : entry.fields) {
+                InheritanceType type = InheritanceType.fromModifiers(field.access);
+                this.fields.put(new FieldSignature(field.name), type);
+                this.fieldsByName.put(field.name, type);
+            }
+            for (MemberEntry method : entry.methods) {
+                this.methods.put(
+                    MethodSignature.of(method.name, method.descriptor),
+                    InheritanceType.fromModifiers(method.access)
+                );
+            }
+        }
+    }
+    
+    /**
+     * Size and modification time of a classpath entry, which change whenever its content does.
+     */
+    static String stamp(Path jar) throws IOException {
+        return Files.size(jar) + "|" + Files.getLastModifiedTime(jar).toMillis();
+    }
+    
+    /**
+     * @return stamp and content hash by absolute path
+     */
+    private static Map<String, String[]> readJarHashes(File file) {
+        Map<String, String[]> result = new HashMap<>();
+        if (!file.exists()) {
+            return result;
+        }
+        try {
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                String[] parts = line.split("\t", 3);
+                if (parts.length == 3) {
+                    result.put(parts[2], new String[]{parts[0], parts[1]});
+                }
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Cannot read " + file + ", hashing all jars again. " + e);
+        }
+        return result;
+    }
+    
+    private static void writeJarHashes(File file, Map<String, String[]> jarHashes) throws IOException {
+        List<String> lines = new ArrayList<>();
+        jarHashes.forEach((path, known) -> lines.add(known[0] + "\t" + known[1] + "\t" + path));
+        file.getParentFile().mkdirs();
+        File temp = new File(file.getPath() + ".tmp");
+        Files.write(temp.toPath(), lines, StandardCharsets.UTF_8);
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    
+    private static String hashJar(Path jar) throws IOException {
+        MessageDigest digest = Devoldefy.sha256();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(jar), digest)) {
+            byte[] buffer = new byte[65536];
+            while (in.read(buffer) != -1) {
+                // only digesting
+            }
+        }
+        return Devoldefy.toHex(digest.digest());
+    }
+    
+    private static List<ClassEntry> scanJar(Path jar) throws IOException {
+        List<ClassEntry> entries = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+            while (zipEntries.hasMoreElements()) {
+                ZipEntry zipEntry = zipEntries.nextElement();
+                String path = zipEntry.getName();
+                if (!path.endsWith(".class") || path.startsWith("META-INF/") ||
+                    path.endsWith("module-info.class")
+                ) {
+                    continue;
+                }
+                
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(zip.getInputStream(zipEntry)))) {
+                    entries.add(readClass(in));
+                }
+                catch (IOException e) {
+                    System.err.println("Skipping unreadable class " + path + " in " + jar + ". " + e);
+                }
+            }
+        }
+        return entries;
+    }
+    
+    /**
+     * Reads the class file up to the methods, the attributes after them are not needed.
+     */
+    private static ClassEntry readClass(DataInputStream in) throws IOException {
+        if (in.readInt() != 0xCAFEBABE) {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort();
+        in.readUnsignedShort();
+        
+        int poolSize = in.readUnsignedShort();
+        String[] utf8 = new String[poolSize];
+        int[] classNames = new int[poolSize];
+        for (int i = 1; i < poolSize; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1:
+                    utf8[i] = in.readUTF();
+                    break;
+                case 7:
+                    classNames[i] = in.readUnsignedShort();
+                    break;
+                case 8:
+                case 16:
+                case 19:
+                case 20:
+                    in.skipBytes(2);
+                    break;
+                case 15:
+                    in.skipBytes(3);
+                    break;
+                case 3:
+                case 4:
+                case 9:
+                case 10:
+                case 11:
+                case 12:
+                case 17:
+                case 18:
+                    in.skipBytes(4);
+                    break;
+                case 5:
+                case 6:
+                    // Takes two constant pool slots
+                    in.skipBytes(8);
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+        
+        ClassEntry entry = new ClassEntry();
+        entry.access = in.readUnsignedShort();
+        entry.name = utf8[classNames[in.readUnsignedShort()]];
+        int superClass = in.readUnsignedShort();
+        entry.superName = superClass != 0 ? utf8[classNames[superClass]] : null;
+        int interfaceCount = in.readUnsignedShort();
+        for (int i = 0; i < interfaceCount; i++) {
+            entry.interfaces.add(utf8[classNames[in.readUnsignedShort()]]);
+        }
+        readMembers(in, utf8, entry.fields);
+        readMembers(in, utf8, entry.methods);
+        return entry;
+    }
+    
+    private static void readMembers(DataInputStream in, String[] utf8, List<MemberEntry> members) throws IOException {
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            int access = in.readUnsignedShort();
+            String name = utf8[in.readUnsignedShort()];
+            String descriptor = utf8[in.readUnsignedShort()];
+            members.add(new MemberEntry(access, name, descriptor));
+            
+            int attributeCount = in.readUnsignedShort();
+            for (int j = 0; j < attributeCount; j++) {
+                in.readUnsignedShort();
+                int length = in.readInt();
+                if (in.skipBytes(length) != length) {
+                    throw new EOFException();
+                }
+            }
+        }
+    }
+    
+    private static List<ClassEntry> readCache(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a hierarchy cache");
+            }
+            
+            int classCount = in.readInt();
+            List<ClassEntry> entries = new ArrayList<>(classCount);
+            for (int i = 0; i < classCount; i++) {
+                ClassEntry entry = new ClassEntry();
+                entry.name = in.readUTF();
+                entry.access = in.readUnsignedShort();
+                entry.superName = in.readBoolean() ? in.readUTF() : null;
+                int interfaceCount = in.readUnsignedShort();
+                for (int j = 0; j < interfaceCount; j++) {
+                    entry.interfaces.add(in.readUTF());
+                }
+                int fieldCount = in.readUnsignedShort();
+                for (int j = 0; j < fieldCount; j++) {
+                    entry.fields.add(new MemberEntry(in.readUnsignedShort(), in.readUTF(), in.readUTF()));
+                }
+                int methodCount = in.readUnsignedShort();
+                for (int j = 0; j < methodCount; j++) {
+                    entry.methods.add(new MemberEntry(in.readUnsignedShort(), in.readUTF(), in.readUTF()));
+                }
+                entries.add(entry);
+            }
+            return entries;
+        }
+    }
+    
+    private static void writeCache(File file, List<ClassEntry> entries) throws IOException {
+        file.getParentFile().mkdirs();
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(entries.size());
+            for (ClassEntry entry : entries) {
+                out.writeUTF(entry.name);
+                out.writeShort(entry.access);
+                out.writeBoolean(entry.superName != null);
+                if (entry.superName != null) {
+                    out.writeUTF(entry.superName);
+                }
+                out.writeShort(entry.interfaces.size());
+                for (String name : entry.interfaces) {
+                    out.writeUTF(name);
+                }
+                out.writeShort(entry.fields.size());
+                for (MemberEntry field : entry.fields) {
+                    out.writeShort(field.access);
+                    out.writeUTF(field.name);
+                    out.writeUTF(field.descriptor);
+                }
+                out.writeShort(entry.methods.size());
+                for (MemberEntry method : entry.methods) {
+                    out.writeShort(method.access);
+                    out.writeUTF(method.name);
+                    out.writeUTF(method.descriptor);
+                }
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
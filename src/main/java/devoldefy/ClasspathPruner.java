@@ -0,0 +1,176 @@
+package devoldefy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Picks the classpath entries that the source tree can actually reach: the jars of the classes
+ * it imports or names fully qualified, and of everything those classes reference in turn.
+ */
+class ClasspathPruner {
+    private static final Pattern PACKAGE = Pattern.compile("^\\s*package\\s+([\\w.]+)\\s*;", Pattern.MULTILINE);
+    private static final Pattern IMPORT = Pattern.compile(
+        "^\\s*import\\s+(static\\s+)?([\\w.]+?)(\\.\\*)?\\s*;",
+        Pattern.MULTILINE
+    );
+    private static final Pattern QUALIFIED_NAME = Pattern.compile("\\b(?:[a-z_][\\w$]*\\.)+[A-Z][\\w$]*");
+    
+    private final ClassHierarchyIndex index;
+    private final Set<String> classes = new HashSet<>();
+    private final Deque<String> queue = new ArrayDeque<>();
+    private final Set<Path> needed = new HashSet<>();
+    
+    private ClasspathPruner(ClassHierarchyIndex index) {
+        this.index = index;
+    }
+    
+    static List<Path> prune(List<Path> classpath, ClassHierarchyIndex index, Path sourceRoot) throws IOException {
+        ClasspathPruner pruner = new ClasspathPruner(index);
+        pruner.addPackage("java/lang");
+        for (String file : ShardedRemapper.listSourceFiles(sourceRoot)) {
+            pruner.scanSource(new String(Files.readAllBytes(sourceRoot.resolve(file)), StandardCharsets.UTF_8));
+        }
+        pruner.resolveReferences();
+        
+        List<Path> result = new ArrayList<>();
+        for (Path entry : classpath) {
+            // Directories are not indexed, so they are always kept
+            if (pruner.needed.contains(entry) || !Files.isRegularFile(entry)) {
+                result.add(entry);
+            }
+        }
+        
+        System.out.println("Pruned classpath from " + classpath.size() + " to " + result.size() + " entries");
+        return result;
+    }
+    
+    /**
+     * Whether one of the names that did not resolve with the pruned classpath may be a class
+     * or package of an entry that pruning dropped, so remapping with the full classpath can help.
+     *
+     * @param unresolvedNames simple and dotted qualified names
+     */
+    static boolean mayResolveInDropped(
+        Collection<String> unresolvedNames,
+        List<Path> classpath,
+        List<Path> prunedClasspath,
+        ClassHierarchyIndex index
+    ) {
+        Set<Path> dropped = new HashSet<>(classpath);
+        dropped.removeAll(prunedClasspath);
+        if (dropped.isEmpty() || unresolvedNames.isEmpty()) {
+            return false;
+        }
+        
+        Set<String> droppedSimpleNames = new HashSet<>();
+        for (String className : index.classesFrom(dropped)) {
+            droppedSimpleNames.add(className.substring(Math.max(
+                className.lastIndexOf('/'),
+                className.lastIndexOf('$')
+            ) + 1));
+        }
+        
+        for (String name : unresolvedNames) {
+            String[] parts = name.split("\\.");
+            StringBuilder packageName = new StringBuilder();
+            for (String part : parts) {
+                if (droppedSimpleNames.contains(part)) {
+                    return true;
+                }
+                
+                if (packageName.length() > 0) {
+                    packageName.append('/');
+                }
+                packageName.append(part);
+                for (Path origin : index.packageOrigins(packageName.toString())) {
+                    if (dropped.contains(origin)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+    
+    private void scanSource(String source) {
+        Matcher packageMatcher = PACKAGE.matcher(source);
+        if (packageMatcher.find()) {
+            // Classes of the same package can be used without import
+            addPackage(packageMatcher.group(1).replace('.', '/'));
+        }
+        
+        Matcher importMatcher = IMPORT.matcher(source);
+        while (importMatcher.find()) {
+            String name = importMatcher.group(2);
+            if (importMatcher.group(3) != null && importMatcher.group(1) == null) {
+                addPackage(name.replace('.', '/'));
+            }
+            addClass(name);
+        }
+        
+        Matcher nameMatcher = QUALIFIED_NAME.matcher(source);
+        while (nameMatcher.find()) {
+            addClass(nameMatcher.group());
+        }
+    }
+    
+    private void addPackage(String packageName) {
+        needed.addAll(index.packageOrigins(packageName));
+        // Any class of the package may be used by simple name, so all of them need their references
+        for (String className : index.packageClasses(packageName)) {
+            enqueue(className);
+        }
+    }
+    
+    /**
+     * Finds the class for a source name like a.b.Outer.Inner or a.b.Outer.member.
+     */
+    private void addClass(String sourceName) {
+        String[] parts = sourceName.split("\\.");
+        for (int length = parts.length; length > 0; length--) {
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < length; i++) {
+                if (i > 0) {
+                    name.append('/');
+                }
+                name.append(parts[i]);
+            }
+            
+            // Try the longest package first, then turn trailing parts into nested classes
+            for (int separator = name.lastIndexOf("/"); ; separator = name.lastIndexOf("/", separator - 1)) {
+                if (index.contains(name.toString())) {
+                    enqueue(name.toString());
+                    return;
+                }
+                if (separator == -1) {
+                    break;
+                }
+                name.setCharAt(separator, '$');
+            }
+        }
+    }
+    
+    private void enqueue(String className) {
+        if (classes.add(className)) {
+            queue.add(className);
+        }
+    }
+    
+    private void resolveReferences() {
+        while (!queue.isEmpty()) {
+            String className = queue.poll();
+            Path origin = index.origin(className);
+            if (origin != null) {
+                needed.add(origin);
+            }
+            for (String referenced : index.referencedClasses(className)) {
+                enqueue(referenced);
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package devoldefy;
 
+import java.util.List;
 import java.util.Set;
 
 public class Config {
@@ -22,4 +23,19 @@ public class Config {
     public String copyTargetDir;
     
     public Set<String> additionalArguments;
+    
+    public int remapThreads;
+    
+    public int remapBatchSize;
+    
+    public String mappingMirror;
+    
+    // More Yarn versions to remap the same MCP source to, sharing one parse of the source
+    public List<Target> targets;
+    
+    public static class Target {
+        public String yarnGameVersion;
+        public String yarnBuild;
+        public String yarnSourceCode;
+    }
 }
@@ -0,0 +1,83 @@
+package devoldefy;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Renames the classes in field and method descriptors, including array and return types.
+ * The same descriptors appear for many members, so the results of the most recent
+ * descriptors are cached. Not thread safe.
+ */
+class DescriptorRemapper {
+    static final int DEFAULT_CACHE_SIZE = 4096;
+    
+    private final Map<String, String> classes;
+    private final Map<String, String> cache;
+    
+    DescriptorRemapper(Map<String, String> classes) {
+        this(classes, DEFAULT_CACHE_SIZE);
+    }
+    
+    DescriptorRemapper(Map<String, String> classes, int cacheSize) {
+        this.classes = classes;
+        this.cache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+    
+    /**
+     * @return the remapped descriptor, the same instance if nothing in it is renamed
+     */
+    String remap(String descriptor) {
+        if (descriptor == null) {
+            return null;
+        }
+        
+        String result = cache.get(descriptor);
+        if (result == null) {
+            result = remap(descriptor, classes);
+            cache.put(descriptor, result);
+        }
+        return result;
+    }
+    
+    /**
+     * Remaps without caching. Only allocates for the class names it looks up
+     * and, if one of them is renamed, for the result.
+     */
+    static String remap(String descriptor, Map<String, String> classes) {
+        StringBuilder result = null;
+        int copied = 0;
+        int length = descriptor.length();
+        for (int i = 0; i < length; i++) {
+            // Outside of class names every character is a type of its own, '[', '(' or ')'
+            if (descriptor.charAt(i) != 'L') {
+                continue;
+            }
+            
+            int end = descriptor.indexOf(';', i + 1);
+            if (end == -1) {
+                break;
+            }
+            
+            String className = descriptor.substring(i + 1, end);
+            String newName = classes.get(className);
+            if (newName != null && !newName.equals(className)) {
+                if (result == null) {
+                    result = new StringBuilder(length + 16);
+                }
+                result.append(descriptor, copied, i + 1).append(newName);
+                copied = end;
+            }
+            i = end;
+        }
+        
+        if (result == null) {
+            return descriptor;
+        }
+        return result.append(descriptor, copied, length).toString();
+    }
+}
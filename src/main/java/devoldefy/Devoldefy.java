@@ -2,13 +2,11 @@ package devoldefy;
 
 import com.google.gson.Gson;
 import org.cadixdev.lorenz.MappingSet;
-import org.cadixdev.lorenz.impl.MappingSetImpl;
-import org.cadixdev.lorenz.impl.MappingSetModelFactoryImpl;
-import org.cadixdev.mercury.Mercury;
+import org.cadixdev.mercury.SourceProcessor;
+import org.cadixdev.mercury.SourceRewriter;
 import org.cadixdev.mercury.mixin.MixinRemapper;
 
 import java.io.*;
-import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
@@ -19,6 +17,7 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
@@ -31,23 +30,47 @@ public class Devoldefy {
     private static final String SRG = "https://raw.githubusercontent.com/MinecraftForge/MCPConfig/master/versions/{mc_version}/joined.tsrg";
     private static final String SRG_NEW = "https://raw.githubusercontent.com/MinecraftForge/MCPConfig/master/versions/release/{mc_version}/joined.tsrg";
     private static final String YARN = "http://maven.modmuss50.me/net/fabricmc/yarn/{target_minecraft_version}+build.{yarn_build}/yarn-{target_minecraft_version}+build.{yarn_build}.jar";
-    private static final String YARN_V2 = "http://maven.modmuss50.me/net/fabricmc/yarn/{target_minecraft_version}+build.{yarn_build}/yarn-{target_minecraft_version}+build.{yarn_build}-v2.jar";
+    // The plain v2 jar only has intermediary and named, the merged one also has official
+    private static final String YARN_MERGED_V2 = "http://maven.modmuss50.me/net/fabricmc/yarn/{target_minecraft_version}+build.{yarn_build}/yarn-{target_minecraft_version}+build.{yarn_build}-mergedv2.jar";
     
     public static final boolean needsConfirmation = false;
     
+    // Jobs of a batch that need the same mappings wait for the first one to build them
+    private static final StripedLocks MAPPING_LOCKS = new StripedLocks(64);
+    // Jobs of a batch may read the same mapping file, it is only deleted once none of them uses it
+    private static final Map<String, MappingUsers> MAPPING_USERS = new HashMap<>();
+    
     public static void main(String[] args) throws Exception {
         
         
         String configFileName;
         
-        if (args.length == 0) {
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        boolean watch = arguments.remove("--watch");
+        
+        if (arguments.isEmpty()) {
             System.out.println("Input Config File Name:");
             configFileName = new Scanner(System.in).nextLine().trim();
         }
         else {
-            configFileName = args[0].trim();
+            configFileName = arguments.get(0).trim();
         }
         
+        run(configFileName, watch);
+    }
+    
+    /**
+     * Runs the remap described by the config file, the file name is given without ".json".
+     */
+    static void run(String configFileName, boolean watch) throws Exception {
+        run(configFileName, watch, null);
+    }
+    
+    /**
+     * @param sharedCacheDir where downloads and chained mappings are kept, so that several configs
+     *                       can share them, null for the cache directory of the config
+     */
+    static void run(String configFileName, boolean watch, File sharedCacheDir) throws Exception {
         File configFile = new File(configFileName + ".json");
         
         if (!configFile.exists()) {
@@ -57,6 +80,134 @@ public class Devoldefy {
         String data = Files.lines(configFile.toPath()).collect(Collectors.joining());
         Config config = (new Gson()).fromJson(data, Config.class);
         
+        File cacheFileDir = new File(configFileName + "_cache");
+                
+        List<File> usedMappings = new ArrayList<>();
+        try {
+            perform(
+                config,
+                watch,
+                cacheFileDir,
+                sharedCacheDir != null ? sharedCacheDir : cacheFileDir,
+                usedMappings
+            );
+        }
+        finally {
+            for (File mappingFile : usedMappings) {
+                releaseMapping(mappingFile);
+            }
+        }
+    }
+    
+    private static void copyOutput(Path copyFrom, Path copyTo) throws IOException {
+        System.out.println("Copy from " + copyFrom);
+        System.out.println("Copy to " + copyTo);
+        
+        if (needsConfirmation) {
+            System.out.println("Input \"confirm\" to copy");
+            
+            String confirmMessage = new Scanner(System.in).nextLine().trim();
+            
+            if (!confirmMessage.equals("confirm")) {
+                System.out.println("didn't copy");
+                return;
+            }
+        }
+        
+        int written = syncDirectory(copyFrom, copyTo, true);
+        System.out.println("Copied " + written + " changed files");
+    }
+    
+    /**
+     * Makes the target directory look like the source directory, but only writes the files whose
+     * content differs, so unchanged files keep their modification time and do not trigger
+     * recompiles. Files that are only in the target are deleted if deleteStale is set.
+     *
+     * @return the number of files written
+     */
+    static int syncDirectory(Path sourcePath, Path targetPath, boolean deleteStale) throws IOException {
+        int[] written = new int[1];
+        Files.walkFileTree(sourcePath, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(
+                final Path dir,
+                final BasicFileAttributes attrs
+            ) throws IOException {
+                Files.createDirectories(targetPath.resolve(sourcePath
+                    .relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+            
+            @Override
+            public FileVisitResult visitFile(
+                final Path file,
+                final BasicFileAttributes attrs
+            ) throws IOException {
+                if (syncFile(file, targetPath.resolve(sourcePath.relativize(file)))) {
+                    written[0]++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        
+        if (deleteStale) {
+            List<Path> stale;
+            try (Stream<Path> files = Files.walk(targetPath)) {
+                stale = files
+                    .filter(path -> !Files.exists(sourcePath.resolve(targetPath.relativize(path))))
+                    .sorted(Comparator.reverseOrder())
+                    .collect(Collectors.toList());
+            }
+            for (Path path : stale) {
+                Files.delete(path);
+            }
+        }
+        
+        return written[0];
+    }
+    
+    /**
+     * Copies the file unless the target already has the same content.
+     *
+     * @return whether the file was written
+     */
+    static boolean syncFile(Path from, Path to) throws IOException {
+        if (Files.isRegularFile(to) && Files.size(from) == Files.size(to) &&
+            Arrays.equals(Files.readAllBytes(from), Files.readAllBytes(to))
+        ) {
+            return false;
+        }
+        
+        Files.createDirectories(to.getParent());
+        Files.copy(from, to, StandardCopyOption.REPLACE_EXISTING);
+        return true;
+    }
+    
+    /**
+     * Mercury writes every file it processes, so the output goes to an empty directory
+     * first and is then synced into the real target.
+     */
+    private static Path createOutputDirectory(File cacheFileDir, String name) throws IOException {
+        Path output = new File(cacheFileDir, name).toPath();
+        if (Files.exists(output)) {
+            deleteDirectory(output);
+        }
+        Files.createDirectories(output);
+        return output;
+    }
+    
+    /**
+     * @param cacheFileDir     the cache directory of the config
+     * @param mappingCacheDir  where downloads and chained mappings are kept
+     * @param usedMappings     receives the mapping files, which have to be released afterwards
+     */
+    private static void perform(
+        Config config,
+        boolean watch,
+        File cacheFileDir,
+        File mappingCacheDir,
+        List<File> usedMappings
+    ) throws Exception {
         String mcpVersion = config.mcpGameVersion;
         String mcpChannel = config.mcpChannel;
         String mcpBuild = config.mcpBuild;
@@ -72,88 +223,390 @@ public class Devoldefy {
             mcpToYarn = !config.additionalArguments.contains("invert");
         }
     
+        boolean incremental = config.additionalArguments != null &&
+            config.additionalArguments.contains("incremental");
+        boolean debugMappings = config.additionalArguments != null &&
+            config.additionalArguments.contains("debugMappings");
+        boolean pruneClasspath = config.additionalArguments != null &&
+            config.additionalArguments.contains("pruneClasspath");
+        
         String sourceRoot = mcpToYarn ? config.mcpSourceCode : config.yarnSourceCode;
         String targetRoot = mcpToYarn ? config.yarnSourceCode : config.mcpSourceCode;
         
-        String[] classPath = config.classpath;
+        List<Config.Target> targets = config.targets == null ? Collections.emptyList() : config.targets;
+        if (!targets.isEmpty() && (!mcpToYarn || incremental || watch)) {
+            throw new IllegalArgumentException(
+                "Additional targets only work for full remapping from MCP to Yarn"
+            );
+        }
+        
+        boolean remapClientServerMarker = true;
+        
+        boolean copy = config.copiedSubPackage != null && !config.copiedSubPackage.isEmpty();
+        Path copyFrom = copy ? new File(targetRoot).toPath().resolve(config.copiedSubPackage) : null;
+        Path copyTo = copy ? new File(config.copyTargetDir).toPath() : null;
+        
+        RemapReport report = new RemapReport();
         
-        perform(
+        File mappingCacheFile = mappingCacheFile(
+            mappingCacheDir,
+            mcpVersion,
+            mcpChannel,
+            mcpBuild,
+            yarnVersion,
+            yarnBuild,
+            mcpToYarn,
+            remapClientServerMarker
+        );
+        prepareMappings(
+            mappingCacheFile,
             mcpVersion,
             mcpChannel,
             mcpBuild,
             yarnVersion,
             yarnBuild,
-            sourceRoot,
-            targetRoot,
-            Arrays.stream(classPath),
             mcpToYarn,
-            true,
-            new File(configFileName + "_cache")
+            remapClientServerMarker,
+            debugMappings,
+            config.mappingMirror,
+            cacheFileDir,
+            usedMappings,
+            report
+        );
+        
+        List<ExtraTarget> extraTargets = new ArrayList<>();
+        for (int i = 0; i < targets.size(); i++) {
+            Config.Target target = targets.get(i);
+            File targetMappingFile = mappingCacheFile(
+                mappingCacheDir,
+                mcpVersion,
+                mcpChannel,
+                mcpBuild,
+                target.yarnGameVersion,
+                target.yarnBuild,
+                mcpToYarn,
+                remapClientServerMarker
+            );
+            prepareMappings(
+                targetMappingFile,
+                mcpVersion,
+                mcpChannel,
+                mcpBuild,
+                target.yarnGameVersion,
+                target.yarnBuild,
+                mcpToYarn,
+                remapClientServerMarker,
+                false,
+                config.mappingMirror,
+                cacheFileDir,
+                usedMappings,
+                report
+            );
+            extraTargets.add(new ExtraTarget(
+                targetMappingFile,
+                createOutputDirectory(cacheFileDir, "output_" + (i + 1)),
+                new File(target.yarnSourceCode).toPath()
+            ));
+        }
+        
+        System.out.println("Start remapping");
+        
+        File sourceDir = new File(sourceRoot);
+        File targetDir = new File(targetRoot);
+        targetDir.mkdirs();
+        
+        List<Path> classpath = Arrays.stream(config.classpath).map(
+            line -> {
+                File jarFile = new File(line);
+                if (!jarFile.exists()) {
+                    throw new IllegalStateException(line);
+                }
+                return jarFile.toPath();
+            }
+        ).collect(Collectors.toList());
+        
+        ClassHierarchyIndex hierarchy = report.time(
+            "hierarchy_index",
+            () -> WarmCaches.hierarchy(classpath, () -> ClassHierarchyIndex.load(classpath, cacheFileDir))
         );
         
-        if (config.copiedSubPackage != null && !config.copiedSubPackage.isEmpty()) {
-            Path copyFrom = new File(targetRoot).toPath().resolve(config.copiedSubPackage);
-            Path copyTo = new File(config.copyTargetDir).toPath();
-            System.out.println("Copy from " + copyFrom);
-            System.out.println("Copy to " + copyTo);
+        List<Path> prunedClasspath = classpath;
+        if (pruneClasspath) {
+            prunedClasspath = report.time(
+                "prune_classpath",
+                () -> ClasspathPruner.prune(classpath, hierarchy, sourceDir.toPath())
+            );
+        }
+        
+        // Loaded once, so remapping again (in watch mode) does not read the mappings again
+        Map<File, LazyMappingSet.Index> indexes = new ConcurrentHashMap<>();
+        
+        if (incremental) {
+            remapIncremental(
+                sourceDir.toPath(),
+                targetDir.toPath(),
+                classpath,
+                prunedClasspath,
+                mappingCacheFile,
+                indexes,
+                hierarchy,
+                config.remapThreads,
+                config.remapBatchSize,
+                cacheFileDir,
+                report
+            );
+        }
+        else {
+            Path output = createOutputDirectory(cacheFileDir, "output");
+            try (RemapReport.Timer timer = report.start("remap")) {
+                timer.addFiles(ShardedRemapper.listSourceFiles(sourceDir.toPath()).size());
+                Set<String> mixinFiles = ConcurrentHashMap.newKeySet();
+                remapWithFallback(
+                    sourceDir.toPath(),
+                    classpath,
+                    prunedClasspath,
+                    mappingCacheFile,
+                    indexes,
+                    hierarchy,
+                    config.remapThreads,
+                    config.remapBatchSize,
+                    cacheFileDir,
+                    extraTargets,
+                    mixinFiles,
+                    null,
+                    report,
+                    remapper -> remapper.remapAll(sourceDir.toPath(), output)
+                );
+                
+                // Files that use mixins can not be remapped to the other targets while remapping the main one
+                if (!mixinFiles.isEmpty()) {
+                    for (ExtraTarget target : extraTargets) {
+                        remapWithFallback(
+                            sourceDir.toPath(),
+                            classpath,
+                            prunedClasspath,
+                            target.mappingFile,
+                            indexes,
+                            hierarchy,
+                            config.remapThreads,
+                            config.remapBatchSize,
+                            cacheFileDir,
+                            Collections.emptyList(),
+                            null,
+                            null,
+                            report,
+                            remapper -> remapper.remapFiles(sourceDir.toPath(), mixinFiles, target.output)
+                        );
+                    }
+                }
+            }
             
-            if (needsConfirmation) {
-                System.out.println("Input \"confirm\" to copy");
+            try (RemapReport.Timer timer = report.start("write_output")) {
+                int written = syncDirectory(output, targetDir.toPath(), true);
+                timer.addFiles(written);
+                System.out.println("Wrote " + written + " changed files");
                 
-                String confirmMessage = new Scanner(System.in).nextLine().trim();
+                for (ExtraTarget target : extraTargets) {
+                    Files.createDirectories(target.targetDir);
+                    int targetWritten = syncDirectory(target.output, target.targetDir, true);
+                    timer.addFiles(targetWritten);
+                    System.out.println("Wrote " + targetWritten + " changed files to " + target.targetDir);
+                }
+            }
+            deleteDirectory(output);
+            for (ExtraTarget target : extraTargets) {
+                deleteDirectory(target.output);
+            }
+        }
+        
+        report.save(new File(cacheFileDir, "remap_report.json"));
+        
+        System.out.println("Finished");
+        
+        if (copyTo != null) {
+            copyOutput(copyFrom, copyTo);
+        }
+        
+        if (watch) {
+            List<Path> remapClasspath = prunedClasspath;
+            new SourceWatcher(sourceDir.toPath()).run((changed, deleted) -> {
+                long start = System.nanoTime();
+                Path target = targetDir.toPath();
+                
+                for (String file : deleted) {
+                    Path output = target.resolve(file);
+                    Files.deleteIfExists(output);
+                    if (copyTo != null && output.startsWith(copyFrom)) {
+                        Files.deleteIfExists(copyTo.resolve(copyFrom.relativize(output)));
+                    }
+                }
+                
+                if (!changed.isEmpty()) {
+                    Path output = createOutputDirectory(cacheFileDir, "output");
+                    remapWithFallback(
+                        sourceDir.toPath(),
+                        classpath,
+                        remapClasspath,
+                        mappingCacheFile,
+                        indexes,
+                        hierarchy,
+                        config.remapThreads,
+                        config.remapBatchSize,
+                        cacheFileDir,
+                        Collections.emptyList(),
+                        null,
+                        null,
+                        new RemapReport(),
+                        remapper -> remapper.remapFiles(sourceDir.toPath(), changed, output)
+                    );
+                    syncDirectory(output, target, false);
+                    deleteDirectory(output);
+                }
                 
-                if (!confirmMessage.equals("confirm")) {
-                    System.out.println("didn't copy");
+                for (String file : changed) {
+                    Path output = target.resolve(file);
+                    if (copyTo != null && output.startsWith(copyFrom) && Files.exists(output)) {
+                        syncFile(output, copyTo.resolve(copyFrom.relativize(output)));
+                    }
+                }
+                
+                System.out.println(
+                    "Remapped " + changed.size() + " and removed " + deleted.size() + " files in " +
+                        (System.nanoTime() - start) / 1000000 + " ms"
+                );
+            });
+        }
+    }
+    
+    private static File mappingCacheFile(
+        File cacheFileDir,
+        String mcpVersion,
+        String mcpChannel,
+        String mcpBuild,
+        String yarnVersion,
+        String yarnBuild,
+        boolean mcpToYarn,
+        boolean remapClientServerMarker
+    ) {
+        String mappingKey = String.join(
+            "|",
+            mcpVersion,
+            mcpChannel,
+            mcpBuild,
+            yarnVersion,
+            yarnBuild,
+            mcpToYarn ? "mcp_to_yarn" : "yarn_to_mcp",
+            String.valueOf(remapClientServerMarker)
+        );
+        return new File(
+            cacheFileDir,
+            "chained_mapping_" + hash(mappingKey).substring(0, 16) + ".bin"
+        );
+    }
+    
+    private static class MappingUsers {
+        int count;
+        boolean discarded;
+    }
+    
+    /**
+     * Builds the mapping cache file unless a valid one already exists.
+     *
+     * @param usedMappings receives the mapping file, which has to be released with
+     *                     {@link #releaseMapping(File)} once the job does not read it anymore
+     */
+    private static void prepareMappings(
+        File mappingCacheFile,
+        String mcpVersion,
+        String mcpChannel,
+        String mcpBuild,
+        String yarnVersion,
+        String yarnBuild,
+        boolean mcpToYarn,
+        boolean remapClientServerMarker,
+        boolean debugMappings,
+        String mirror,
+        File cacheFileDir,
+        List<File> usedMappings,
+        RemapReport report
+    ) throws Exception {
+        Object lock = MAPPING_LOCKS.get(mappingCacheFile.getAbsolutePath());
+        synchronized (lock) {
+            // Taken before looking at the file, so a job that discards it can not delete it under this one
+            MappingUsers users;
+            synchronized (MAPPING_USERS) {
+                users = MAPPING_USERS.computeIfAbsent(mappingCacheFile.getAbsolutePath(), k -> new MappingUsers());
+                users.count++;
+            }
+            usedMappings.add(mappingCacheFile);
+            
+            if (mappingCacheFile.exists()) {
+                try {
+                    BinaryMappings.verify(mappingCacheFile);
+                    System.out.println("Using cached mapping " + mappingCacheFile);
                     return;
                 }
+                catch (IOException e) {
+                    System.err.println("Cannot read cached mapping, rebuilding it. " + e);
+                }
             }
             
-            deleteDirectory(copyTo);
-            copyDirectory(copyFrom, copyTo);
+            int classCount = buildMappings(
+                mcpVersion,
+                mcpChannel,
+                mcpBuild,
+                yarnVersion,
+                yarnBuild,
+                mcpToYarn,
+                remapClientServerMarker,
+                debugMappings,
+                mirror,
+                cacheFileDir,
+                mappingCacheFile,
+                report
+            );
+            
+            // Probably an incomplete download, build it again next time
+            synchronized (MAPPING_USERS) {
+                users.discarded = classCount < 2000;
+            }
         }
     }
     
-    private static void copyDirectory(Path sourcePath, Path targetPath) throws IOException {
-        Files.walkFileTree(sourcePath, new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult preVisitDirectory(
-                final Path dir,
-                final BasicFileAttributes attrs
-            ) throws IOException {
-                Files.createDirectories(targetPath.resolve(sourcePath
-                    .relativize(dir)));
-                return FileVisitResult.CONTINUE;
-            }
-            
-            @Override
-            public FileVisitResult visitFile(
-                final Path file,
-                final BasicFileAttributes attrs
-            ) throws IOException {
-                Files.copy(
-                    file,
-                    targetPath.resolve(sourcePath.relativize(file)),
-                    StandardCopyOption.REPLACE_EXISTING
-                );
-                return FileVisitResult.CONTINUE;
+    /**
+     * Deletes the mapping file if it was discarded and no other job uses it anymore.
+     */
+    private static void releaseMapping(File mappingFile) {
+        synchronized (MAPPING_USERS) {
+            MappingUsers users = MAPPING_USERS.get(mappingFile.getAbsolutePath());
+            if (--users.count == 0) {
+                MAPPING_USERS.remove(mappingFile.getAbsolutePath());
+                if (users.discarded) {
+                    mappingFile.delete();
+                }
             }
-        });
+        }
     }
     
-    private static void perform(
+    /**
+     * Downloads and chains the mappings and writes the result to the mapping cache file.
+     *
+     * @return the number of chained class mappings
+     */
+    private static int buildMappings(
         String mcpVersion,
         String mcpChannel,
         String mcpBuild,
         String yarnVersion,
         String yarnBuild,
-        String sourceRoot,
-        String targetRoot,
-        Stream<String> classPathLines,
         boolean mcpToYarn,
         boolean remapClientServerMarker,
-        File cacheFileDir
+        boolean debugMappings,
+        String mirror,
+        File cacheFileDir,
+        File mappingCacheFile,
+        RemapReport report
     ) throws Exception {
-        
         System.out.println("Begin Downloading");
         
         String csvUrl = CSV.replace("{mc_version}", mcpVersion).replace(
@@ -161,32 +614,65 @@ public class Devoldefy {
             mcpChannel
         ).replace("{csv_build}", mcpBuild);
         String srgUrl = SRG_NEW.replace("{mc_version}", yarnVersion);
-        String yarnUrl = YARN.replace("{target_minecraft_version}", yarnVersion).replace(
+        String yarnUrl = YARN_MERGED_V2.replace("{target_minecraft_version}", yarnVersion).replace(
             "{yarn_build}",
             yarnBuild
         );
         
-        Mappings srg = readTsrg(
-            new Scanner(download(srgUrl, cacheFileDir)),
-            readCsv(new Scanner(extract(
-                download(csvUrl, cacheFileDir),
-                "fields.csv",
-                cacheFileDir
-            ))),
-            readCsv(new Scanner(extract(
-                download(csvUrl, cacheFileDir),
-                "methods.csv",
-                cacheFileDir
-            )))
-        );
+        ArtifactFetcher fetcher = new ArtifactFetcher(mappingCacheFile.getParentFile(), mirror);
+        Map<String, File> downloaded;
+        boolean yarnV2 = true;
+        try (RemapReport.Timer timer = report.start("download")) {
+            downloaded = fetcher.fetchAll(
+                Arrays.asList(srgUrl, csvUrl, yarnUrl),
+                Collections.singleton(yarnUrl)
+            );
+            
+            File yarnV2File = downloaded.get(yarnUrl);
+            if (yarnV2File == null || !hasTinyNamespaces(yarnV2File, "official", "named")) {
+                // Old Yarn builds were only published in tiny v1
+                System.out.println(yarnV2File == null ?
+                    "There is no merged tiny v2 mapping, trying v1" :
+                    "The tiny v2 mapping has no official names, trying v1");
+                downloaded.remove(yarnUrl);
+                yarnUrl = YARN.replace("{target_minecraft_version}", yarnVersion).replace(
+                    "{yarn_build}",
+                    yarnBuild
+                );
+                downloaded.put(yarnUrl, fetcher.fetch(yarnUrl));
+                yarnV2 = false;
+            }
+            timer.addFiles(downloaded.size());
+        }
+        
+        SymbolTable symbols = new SymbolTable();
+        
+        // Entries are inflated while they are parsed, so extraction is part of the reading phases
+        Map<String, String> fieldNames;
+        Map<String, String> methodNames;
+        try (ZipFile csvZip = new ZipFile(downloaded.get(csvUrl))) {
+            fieldNames = report.time("read_csv", () -> readCsv(openEntry(csvZip, "fields.csv")));
+            methodNames = report.time("read_csv", () -> readCsv(openEntry(csvZip, "methods.csv")));
+        }
+        
+        File srgFile = downloaded.get(srgUrl);
+        Mappings srg = report.time("read_tsrg", () -> readTsrg(
+            new FileInputStream(srgFile),
+            fieldNames,
+            methodNames,
+            symbols
+        ));
         
         Mappings yarn;
-        yarn = readYarnV1(
-            new Scanner(extract(download(yarnUrl, cacheFileDir), "mappings/mappings.tiny",
-                cacheFileDir
-            )),
-            "official", "named"
-        );
+        try (ZipFile yarnJar = new ZipFile(downloaded.get(yarnUrl))) {
+            InputStream tiny = openEntry(yarnJar, "mappings/mappings.tiny");
+            if (yarnV2) {
+                yarn = report.time("read_yarn", () -> readYarnV2(tiny, "official", "named", symbols));
+            }
+            else {
+                yarn = report.time("read_yarn", () -> readYarnV1(tiny, "official", "named", symbols));
+            }
+        }
         
         if (remapClientServerMarker) {
             srg.classes.put(
@@ -209,425 +695,595 @@ public class Devoldefy {
         
         System.out.println("Downloaded");
         
-        Mappings mappings = srg.invert().chain(yarn, false);
+        int classCount = report.time("chain", () -> BinaryMappings.write(
+            mappingCacheFile,
+            consumer -> Mappings.chainInverted(srg, yarn, !mcpToYarn, consumer)
+        ));
         
-        if (!mcpToYarn) {
-            mappings = mappings.invert();
-        }
-        
-        if (mappings.classes.size() < 2000) {
+        if (classCount < 2000) {
             System.err.println(
                 "Mapping number too few. Maybe the mapping is downloaded incompletely." +
                     " Try to delete cache."
             );
         }
         
-        mappings.writeDebugMapping(new File(cacheFileDir, "chained_mapping"));
-        srg.writeDebugMapping(new File(cacheFileDir, "mcp"));
-        yarn.writeDebugMapping(new File(cacheFileDir, "yarn"));
-        
-        System.out.println("Start remapping");
-        
-        File sourceDir = new File(sourceRoot);
-        File targetDir = new File(targetRoot);
-        targetDir.mkdirs();
-        
-        deleteDirectory(targetDir.toPath());
-        
-        List<Path> classpath = classPathLines.map(
-            line -> {
-                File jarFile = new File(line);
-                if (!jarFile.exists()) {
-                    throw new IllegalStateException(line);
-                }
-                return jarFile.toPath();
+        if (debugMappings) {
+            try (RemapReport.Timer ignored = report.start("debug_mappings")) {
+                Mappings chained = new Mappings();
+                BinaryMappings.read(mappingCacheFile, chained);
+                chained.writeDebugMapping(new File(cacheFileDir, "chained_mapping"));
+                srg.writeDebugMapping(new File(cacheFileDir, "mcp"));
+                yarn.writeDebugMapping(new File(cacheFileDir, "yarn"));
             }
-        ).collect(Collectors.toList());
-        
-        remap(sourceDir.toPath(), targetDir.toPath(), classpath, mappings);
+        }
         
-        System.out.println("Finished");
+        return classCount;
     }
     
-    private static void deleteDirectory(Path targetPath) throws IOException {
-        Files.walk(targetPath).sorted(Comparator.reverseOrder()).map(Path::toFile)
-            .forEach(File::delete);
-    }
-    
-    private static File download(String url, File directory) throws IOException {
-        System.out.println("downloading " + url);
+    private static void remapIncremental(
+        Path source,
+        Path target,
+        List<Path> classpath,
+        List<Path> prunedClasspath,
+        File mappingFile,
+        Map<File, LazyMappingSet.Index> indexes,
+        ClassHierarchyIndex hierarchy,
+        int threads,
+        int batchSize,
+        File cacheFileDir,
+        RemapReport report
+    ) throws Exception {
+        File manifestFile = new File(cacheFileDir, "remap_manifest.json");
+        RemapManifest manifest = RemapManifest.load(manifestFile);
         
-        directory.mkdirs();
-        File file = new File(directory, url.substring(url.lastIndexOf('/') + 1));
+        String mappingFingerprint = hash(mappingFile.toPath());
+        // Changing the classpath can change how bindings resolve, so it invalidates every file
+        String classpathFingerprint = hash(classpath.toString());
         
-        if (!file.exists()) {
-            try (InputStream in = new URL(url).openStream()) {
-                Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        // Files that only use names the new mapping did not change can be kept
+        MappingDiff mappingDiff = null;
+        if (manifest.mappingFingerprint != null && !manifest.mappingFingerprint.equals(mappingFingerprint)) {
+            File previousMapping = manifest.mappingFile != null ? new File(manifest.mappingFile) : null;
+            if (previousMapping != null && previousMapping.exists() &&
+                hash(previousMapping.toPath()).equals(manifest.mappingFingerprint)
+            ) {
+                mappingDiff = report.time("mapping_diff", () -> MappingDiff.compute(previousMapping, mappingFile));
+                System.out.println("Mapping changed for " + mappingDiff.size() + " names");
+            }
+            else {
+                System.out.println("Previous mapping is gone, remapping every file");
             }
         }
         
-        return file;
-    }
-    
-    private static File extract(File zip, String path, File directory) throws IOException {
-        directory.mkdirs();
-        File file = new File(directory, path);
-        file.mkdirs();
+        List<String> sourceFiles = ShardedRemapper.listSourceFiles(source);
+        Map<String, String> sourceHashes = new HashMap<>();
+        List<String> dirty = new ArrayList<>();
         
-        try (ZipFile zipFile = new ZipFile(zip)) {
-            InputStream is = null;
+        RemapReport.Timer hashTimer = report.start("check_changes");
+        hashTimer.addFiles(sourceFiles.size());
+        for (String file : sourceFiles) {
+            String sourceHash = hash(source.resolve(file));
+            sourceHashes.put(file, sourceHash);
             
-            Enumeration<? extends ZipEntry> entries = zipFile.entries();
-            while (entries.hasMoreElements()) {
-                ZipEntry zipEntry = entries.nextElement();
-                if (zipEntry.getName().equals(path)) {
-                    is = zipFile.getInputStream(zipEntry);
-                    break;
+            RemapManifest.Entry entry = manifest.entries.get(file);
+            Path output = target.resolve(file);
+            if (entry == null ||
+                !sourceHash.equals(entry.sourceHash) ||
+                !classpathFingerprint.equals(entry.classpathFingerprint) ||
+                !Files.exists(output) ||
+                !hash(output).equals(entry.outputHash)
+            ) {
+                dirty.add(file);
+            }
+            else if (!mappingFingerprint.equals(entry.mappingFingerprint)) {
+                if (mappingDiff == null ||
+                    !manifest.mappingFingerprint.equals(entry.mappingFingerprint) ||
+                    entry.symbols == null ||
+                    mappingDiff.affects(entry.symbols)
+                ) {
+                    dirty.add(file);
+                }
+                else {
+                    entry.mappingFingerprint = mappingFingerprint;
                 }
             }
-            
-            if (is == null) {
-                return null;
+        }
+        hashTimer.close();
+        
+        Iterator<String> iterator = manifest.entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            String file = iterator.next();
+            if (!sourceHashes.containsKey(file)) {
+                System.out.println("Removing stale output " + file);
+                Files.deleteIfExists(target.resolve(file));
+                iterator.remove();
+            }
+        }
+        
+        System.out.println(
+            "Incremental remapping: " + dirty.size() + " of " + sourceFiles.size() + " files changed"
+        );
+        
+        Map<String, Set<String>> referencedSymbols = new ConcurrentHashMap<>();
+        if (!dirty.isEmpty()) {
+            Path output = createOutputDirectory(cacheFileDir, "output");
+            try (RemapReport.Timer timer = report.start("remap")) {
+                timer.addFiles(dirty.size());
+                remapWithFallback(
+                    source,
+                    classpath,
+                    prunedClasspath,
+                    mappingFile,
+                    indexes,
+                    hierarchy,
+                    threads,
+                    batchSize,
+                    cacheFileDir,
+                    Collections.emptyList(),
+                    null,
+                    referencedSymbols,
+                    report,
+                    remapper -> remapper.remapFiles(source, dirty, output)
+                );
             }
             
-            Files.copy(is, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            try (RemapReport.Timer timer = report.start("write_output")) {
+                int written = syncDirectory(output, target, false);
+                timer.addFiles(written);
+                System.out.println("Wrote " + written + " changed files");
+            }
+            deleteDirectory(output);
         }
         
-        return file;
+        for (String file : dirty) {
+            Path output = target.resolve(file);
+            RemapManifest.Entry entry = new RemapManifest.Entry();
+            entry.sourceHash = sourceHashes.get(file);
+            entry.mappingFingerprint = mappingFingerprint;
+            entry.classpathFingerprint = classpathFingerprint;
+            // Files moved to a remapped package have no output at the same path and stay dirty
+            entry.outputHash = Files.exists(output) ? hash(output) : null;
+            Set<String> symbols = referencedSymbols.get(file);
+            entry.symbols = symbols != null ? new TreeSet<>(symbols) : null;
+            manifest.entries.put(file, entry);
+        }
+        
+        manifest.mappingFingerprint = mappingFingerprint;
+        manifest.mappingFile = mappingFile.getAbsolutePath();
+        manifest.save(manifestFile);
+    }
+    
+    static void deleteDirectory(Path targetPath) throws IOException {
+        Files.walk(targetPath).sorted(Comparator.reverseOrder()).map(Path::toFile)
+            .forEach(File::delete);
+    }
+    
+    private static InputStream openEntry(ZipFile zip, String path) throws IOException {
+        ZipEntry entry = zip.getEntry(path);
+        if (entry == null) {
+            throw new FileNotFoundException(path + " in " + zip.getName());
+        }
+        return zip.getInputStream(entry);
     }
     
     private static String hash(String s) {
+        return toHex(sha256().digest(s.getBytes(StandardCharsets.UTF_8)));
+    }
+    
+    private static String hash(Path file) throws IOException {
+        return toHex(sha256().digest(Files.readAllBytes(file)));
+    }
+    
+    static MessageDigest sha256() {
         try {
-            byte[] hash = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
-            
-            StringBuilder sb = new StringBuilder();
-            for (byte b : hash) {
-                sb.append(String.format("%02x", b));
-            }
-            
-            return sb.toString();
+            return MessageDigest.getInstance("SHA-256");
         }
         catch (NoSuchAlgorithmException e) {
             throw new AssertionError(e);
         }
     }
     
-    private static Mappings readTsrg(
-        Scanner s,
+    static String toHex(byte[] hash) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : hash) {
+            sb.append(String.format("%02x", b));
+        }
+        
+        return sb.toString();
+    }
+    
+    static Mappings readTsrg(
+        InputStream in,
         Map<String, String> fieldNames,
-        Map<String, String> methodNames
-    ) {
-        Map<String, String> classes = new LinkedHashMap<>();
-        Map<String, String> fields = new LinkedHashMap<>();
-        Map<String, String> methods = new LinkedHashMap<>();
-        
-        String currentClassA = null;
-        String currentClassB = null;
-        while (s.hasNextLine()) {
-            String line = s.nextLine();
-            
-            if (!line.startsWith("\t")) {
-                String[] parts = line.split(" ");
-                classes.put(parts[0], parts[1]);
-                currentClassA = parts[0];
-                currentClassB = parts[1];
-                continue;
-            }
-            
-            line = line.substring(1);
-            
-            String[] parts = line.split(" ");
-            
-            if (parts.length == 2) {
-                fields.put(
-                    currentClassA + ":" + parts[0],
-                    currentClassB + ":" + fieldNames.getOrDefault(parts[1], parts[1])
-                );
-            }
-            else if (parts.length == 3) {
-                methods.put(
-                    currentClassA + ":" + parts[0] + parts[1],
-                    currentClassB + ":" + methodNames.getOrDefault(parts[2], parts[2]) + parts[1]
-                );
+        Map<String, String> methodNames,
+        SymbolTable symbols
+    ) throws IOException {
+        Mappings mappings = new Mappings(symbols);
+        
+        try (MappingTokenizer t = new MappingTokenizer(in, ' ', false)) {
+            String currentClassA = null;
+            String currentClassB = null;
+            while (t.nextLine()) {
+                if (t.fieldCount() == 0) {
+                    continue;
+                }
+                
+                if (t.indent() == 0) {
+                    currentClassA = symbols.intern(t.field(0));
+                    currentClassB = symbols.intern(t.field(1));
+                    mappings.classes.put(currentClassA, currentClassB);
+                    continue;
+                }
+                
+                if (t.fieldCount() == 2) {
+                    String srgName = t.field(1);
+                    mappings.fields.put(
+                        symbols.member(currentClassA, t.field(0), null),
+                        symbols.member(currentClassB, fieldNames.getOrDefault(srgName, srgName), null)
+                    );
+                }
+                else if (t.fieldCount() == 3) {
+                    String descriptor = t.field(1);
+                    String srgName = t.field(2);
+                    mappings.methods.put(
+                        symbols.member(currentClassA, t.field(0), descriptor),
+                        symbols.member(currentClassB, methodNames.getOrDefault(srgName, srgName), descriptor)
+                    );
+                }
             }
         }
         
-        Mappings mappings = new Mappings();
-        mappings.classes.putAll(classes);
-        mappings.fields.putAll(fields);
-        methods.forEach((a, b) -> mappings.methods.put(a, remapMethodDescriptor(b, classes)));
-        
-        s.close();
+        mappings.remapTargetDescriptors();
         return mappings;
     }
     
-    private static Map<String, String> readCsv(Scanner s) {
+    static Map<String, String> readCsv(InputStream in) throws IOException {
         Map<String, String> mappings = new LinkedHashMap<>();
-        
-        try (Scanner r = s) {
-            r.nextLine();
-            while (r.hasNextLine()) {
-                String[] parts = r.nextLine().split(",");
-                mappings.put(parts[0], parts[1]);
+    
+        try (MappingTokenizer t = new MappingTokenizer(in, ',', true)) {
+            // header
+            t.nextLine();
+            while (t.nextLine()) {
+                if (t.fieldCount() >= 2) {
+                    mappings.put(t.field(0), t.field(1));
+                }
             }
         }
         
-        s.close();
         return mappings;
     }
     
-    private static Mappings readYarnV1(Scanner s, String from, String to) {
-        String[] header = s.nextLine().split("\t");
-        Map<String, Integer> columns = new HashMap<>();
-        
-        for (int i = 1; i < header.length; i++) {
-            columns.put(header[i], i - 1);
-        }
-        
-        int fromColumn = columns.get(from);
-        int toColumn = columns.get(to);
-        
-        Map<String, String> classes = new LinkedHashMap<>();
-        Map<String, String> fields = new LinkedHashMap<>();
-        Map<String, String> methods = new LinkedHashMap<>();
-        
-        while (s.hasNextLine()) {
-            String[] line = s.nextLine().split("\t");
-            switch (line[0]) {
-                case "CLASS": {
-                    classes.put(line[fromColumn + 1], line[toColumn + 1]);
-                    break;
+    static Mappings readYarnV1(
+        InputStream in,
+        String from,
+        String to,
+        SymbolTable symbols
+    ) throws IOException {
+        Mappings mappings = new Mappings(symbols);
+        Map<String, String> classes = mappings.classes;
+            
+        try (MappingTokenizer t = new MappingTokenizer(in, '\t', false)) {
+            t.nextLine();
+            int fromColumn = -1;
+            int toColumn = -1;
+            for (int i = 1; i < t.fieldCount(); i++) {
+                if (t.fieldEquals(i, from)) {
+                    fromColumn = i - 1;
                 }
-                
-                case "FIELD": {
-                    fields.put(
-                        line[1] + ":" + line[fromColumn + 3],
-                        classes.get(line[1]) + ":" + line[toColumn + 3]
+                if (t.fieldEquals(i, to)) {
+                    toColumn = i - 1;
+                }
+            }
+            
+            if (fromColumn == -1 || toColumn == -1) {
+                throw new IOException("Missing namespace " + from + " or " + to + " in tiny header");
+            }
+            
+            while (t.nextLine()) {
+                if (t.fieldEquals(0, "CLASS")) {
+                    classes.put(
+                        symbols.intern(t.field(fromColumn + 1)),
+                        symbols.intern(t.field(toColumn + 1))
                     );
-                    break;
                 }
-                
-                case "METHOD": {
-                    String m1 = line[1] + ":" + line[fromColumn + 3] + line[2];
-                    String m2 = classes.get(line[1]) + ":" + line[toColumn + 3] + line[2];
-                    methods.put(
-                        m1,
-                        m2
+                else if (t.fieldEquals(0, "FIELD")) {
+                    String owner = t.field(1);
+                    mappings.fields.put(
+                        symbols.member(owner, t.field(fromColumn + 3), null),
+                        symbols.member(classes.getOrDefault(owner, owner), t.field(toColumn + 3), null)
+                    );
+                }
+                else if (t.fieldEquals(0, "METHOD")) {
+                    String owner = t.field(1);
+                    String descriptor = t.field(2);
+                    mappings.methods.put(
+                        symbols.member(owner, t.field(fromColumn + 3), descriptor),
+                        symbols.member(classes.getOrDefault(owner, owner), t.field(toColumn + 3), descriptor)
                     );
-                    break;
                 }
             }
         }
         
-        Mappings mappings = new Mappings();
-        mappings.classes.putAll(classes);
-        mappings.fields.putAll(fields);
-        methods.forEach((a, b) -> mappings.methods.put(a, remapMethodDescriptor(b, classes)));
-        
-        s.close();
+        mappings.remapTargetDescriptors();
         return mappings;
     }
     
-    
-    private static void remap(
-        Path source,
-        Path target,
-        List<Path> classpath,
-        Mappings mappings
-    ) throws Exception {
-        Mercury mercury = new Mercury();
-        mercury.getClassPath().addAll(classpath);
-        mercury.setGracefulClasspathChecks(true);
-        
-        MappingSet mappingSet = new MappingSetImpl(new MappingSetModelFactoryImpl());
-        mappings.classes.forEach((a, b) -> mappingSet
-            .getOrCreateClassMapping(a)
-            .setDeobfuscatedName(b)
-        );
-        
-        mappings.fields.forEach((a, b) -> mappingSet
-            .getOrCreateClassMapping(a.split(":")[0])
-            .getOrCreateFieldMapping(a.split(":")[1])
-            .setDeobfuscatedName(b.split(":")[1])
-        );
-        
-        mappings.methods.forEach((a, b) -> {
-            String a0 = a.split(":")[0];
-            String a1 = a.split(":")[1];
-            String b1 = b.split(":")[1];
-            String binName = a1.substring(0, a1.indexOf('('));
-            String descriptor = getDescriptor(a1);
-            mappingSet
-                .getOrCreateClassMapping(a0)
-                .getOrCreateMethodMapping(binName, descriptor)
-                .setDeobfuscatedName(b1.substring(0, b1.indexOf('(')));
-        });
-        
-        mercury.getProcessors().add(MixinRemapper.create(mappingSet));
-        mercury.getProcessors().add(new MyRemapper(mappingSet));
-        
-        mercury.rewrite(source, target);
+    private static boolean hasTinyNamespaces(File jar, String... namespaces) throws IOException {
+        try (ZipFile zip = new ZipFile(jar)) {
+            return hasTinyNamespaces(openEntry(zip, "mappings/mappings.tiny"), namespaces);
+        }
     }
     
-    private static String getDescriptor(String method) {
-        try {
-            StringBuilder result = new StringBuilder();
+    /**
+     * @return whether the header of the tiny file names all the given namespaces
+     */
+    static boolean hasTinyNamespaces(InputStream in, String... namespaces) throws IOException {
+        try (MappingTokenizer t = new MappingTokenizer(in, '\t', false)) {
+            if (!t.nextLine() || !t.fieldEquals(0, "tiny")) {
+                return false;
+            }
             
-            Reader r = new StringReader(method);
-            boolean started = false;
-            while (true) {
-                int c = r.read();
-                
-                if (c == -1) {
-                    break;
-                }
-                
-                if (c == '(') {
-                    started = true;
+            for (String namespace : namespaces) {
+                boolean found = false;
+                for (int i = 3; i < t.fieldCount(); i++) {
+                    if (t.fieldEquals(i, namespace)) {
+                        found = true;
+                    }
                 }
-                
-                if (started) {
-                    result.append((char) c);
+                if (!found) {
+                    return false;
                 }
             }
-            
-            return result.toString();
-        }
-        catch (IOException e) {
-            throw new AssertionError(e);
+            return true;
         }
     }
-    
-    private static String remapMethodDescriptor(String method, Map<String, String> classMappings) {
-        try {
-            Reader r = new StringReader(method);
-            StringBuilder result = new StringBuilder();
-            boolean started = false;
-            boolean insideClassName = false;
-            StringBuilder className = new StringBuilder();
-            while (true) {
-                int c = r.read();
-                if (c == -1) {
-                    break;
-                }
                 
-                if (c == ';') {
-                    insideClassName = false;
-                    result.append(classMappings.getOrDefault(
-                        className.toString(),
-                        className.toString()
-                    ));
+    static Mappings readYarnV2(
+        InputStream in,
+        String from,
+        String to,
+        SymbolTable symbols
+    ) throws IOException {
+        Mappings mappings = new Mappings(symbols);
+        
+        try (MappingTokenizer t = new MappingTokenizer(in, '\t', false)) {
+            if (!t.nextLine() || !t.fieldEquals(0, "tiny") || !t.fieldEquals(1, "2")) {
+                throw new IOException("Not a tiny v2 file");
+            }
+            
+            int fromColumn = -1;
+            int toColumn = -1;
+            for (int i = 3; i < t.fieldCount(); i++) {
+                if (t.fieldEquals(i, from)) {
+                    fromColumn = i - 3;
                 }
-                
-                if (insideClassName) {
-                    className.append((char) c);
+                if (t.fieldEquals(i, to)) {
+                    toColumn = i - 3;
                 }
-                else {
-                    result.append((char) c);
+            }
+            
+            if (fromColumn == -1 || toColumn == -1) {
+                throw new IOException("Missing namespace " + from + " or " + to + " in tiny header");
+            }
+            if (fromColumn != 0) {
+                // Descriptors are written with the class names of the first namespace
+                throw new IOException("Can only read tiny v2 from its first namespace " + t.field(3));
+            }
+            
+            String classA = null;
+            String classB = null;
+            Member method = null;
+            while (t.nextLine()) {
+                if (t.fieldCount() == 0) {
+                    continue;
                 }
                 
-                if (c == '(') {
-                    started = true;
+                int indent = t.indent();
+                if (indent == 0 && t.fieldEquals(0, "c")) {
+                    classA = symbols.intern(t.field(1 + fromColumn));
+                    classB = symbols.intern(tinyName(t, 1 + toColumn, classA));
+                    mappings.classes.put(classA, classB);
+                    method = null;
                 }
-                
-                //qouteall changed
-                if (started && c == 'L' && !insideClassName) {
-                    insideClassName = true;
-                    className.setLength(0);
+                else if (indent == 1 && t.fieldEquals(0, "f") && classA != null) {
+                    String name = t.field(2 + fromColumn);
+                    mappings.fields.put(
+                        symbols.member(classA, name, null),
+                        symbols.member(classB, tinyName(t, 2 + toColumn, name), null)
+                    );
+                    method = null;
+                }
+                else if (indent == 1 && t.fieldEquals(0, "m") && classA != null) {
+                    String descriptor = t.field(1);
+                    String name = t.field(2 + fromColumn);
+                    method = symbols.member(classA, name, descriptor);
+                    mappings.methods.put(
+                        method,
+                        symbols.member(classB, tinyName(t, 2 + toColumn, name), descriptor)
+                    );
+                }
+                else if (indent == 2 && t.fieldEquals(0, "p") && method != null) {
+                    String name = tinyName(t, 2 + toColumn, null);
+                    if (name != null) {
+                        mappings.acceptParameter(method, Integer.parseInt(t.field(1)), name);
+                    }
                 }
             }
-            
-            return result.toString();
-        }
-        catch (IOException e) {
-            throw new AssertionError(e);
         }
+        
+        mappings.remapTargetDescriptors();
+        return mappings;
     }
     
-    private static class Mappings {
-        public final Map<String, String> classes = new LinkedHashMap<>();
-        public final Map<String, String> fields = new LinkedHashMap<>();
-        public final Map<String, String> methods = new LinkedHashMap<>();
-        
-        public Mappings chain(Mappings other, boolean defaultIfMissing) {
-            Mappings result = new Mappings();
-            
-            if (defaultIfMissing) {
-                classes.forEach((a, b) -> result.classes.put(
-                    a, other.classes.getOrDefault(b, b)
-                ));
-                fields.forEach((a, b) -> result.fields.put(
-                    a, other.fields.getOrDefault(b, b)
-                ));
-                methods.forEach((a, b) -> result.methods.put(
-                    a, other.methods.getOrDefault(b, b)
-                ));
-            }
-            else {
-                classes.forEach((a, b) -> {
-                    String s = other.classes.get(b);
-                    if (s != null) {
-                        result.classes.put(a, s);
-                    }
-                });
-                fields.forEach((a, b) -> {
-                    String s = other.fields.get(b);
-                    if (s != null) {
-                        result.fields.put(a, s);
-                    }
-                });
-                methods.forEach((a, b) -> {
-                    String s = other.methods.get(b);
-                    if (s != null) {
-                        result.methods.put(a, s);
-                    }
-                });
+    /**
+     * Tiny v2 leaves names empty when a namespace does not rename the element.
+     */
+    private static String tinyName(MappingTokenizer t, int index, String fallback) {
+        if (index < t.fieldCount()) {
+            String name = t.field(index);
+            if (!name.isEmpty()) {
+                return name;
             }
-            
-            
-            return result;
         }
+        return fallback;
+    }
+    
+    private interface RemapAction {
+        void run(ShardedRemapper remapper) throws Exception;
+    }
+    
+    private static class ExtraTarget {
+        final File mappingFile;
+        final Path output;
+        final Path targetDir;
         
-        public Mappings invert() {
-            Mappings result = new Mappings();
-            
-            classes.forEach((a, b) -> result.classes.put(b, a));
-            fields.forEach((a, b) -> result.fields.put(b, a));
-            methods.forEach((a, b) -> result.methods.put(b, a));
-            
-            return result;
+        ExtraTarget(File mappingFile, Path output, Path targetDir) {
+            this.mappingFile = mappingFile;
+            this.output = output;
+            this.targetDir = targetDir;
         }
+    }
+    
+    /**
+     * Remaps with the pruned classpath and, if that left names unresolved,
+     * remaps the same files again with the full classpath.
+     *
+     * @param mixinFiles receives the files that still have to be remapped to the extra targets,
+     *                   may be null without extra targets
+     */
+    private static void remapWithFallback(
+        Path sourceRoot,
+        List<Path> classpath,
+        List<Path> prunedClasspath,
+        File mappingFile,
+        Map<File, LazyMappingSet.Index> indexes,
+        ClassHierarchyIndex hierarchy,
+        int threads,
+        int batchSize,
+        File cacheFileDir,
+        List<ExtraTarget> extraTargets,
+        Set<String> mixinFiles,
+        Map<String, Set<String>> referencedSymbols,
+        RemapReport report,
+        RemapAction action
+    ) throws Exception {
+        Path stagingRoot = new File(cacheFileDir, "staging").toPath();
+        Set<String> unresolvedNames = ConcurrentHashMap.newKeySet();
+        action.run(createRemapper(
+            sourceRoot,
+            prunedClasspath,
+            mappingFile,
+            indexes,
+            hierarchy,
+            unresolvedNames,
+            referencedSymbols,
+            threads,
+            batchSize,
+            stagingRoot,
+            extraTargets,
+            mixinFiles,
+            report
+        ));
         
-        public void writeDebugMapping(File dir) {
-            dir.mkdirs();
-            writeMappingData(this.classes, new File(dir, "classes.txt"));
-            writeMappingData(this.fields, new File(dir, "fields.txt"));
-            writeMappingData(this.methods, new File(dir, "methods.txt"));
+        // Most source trees have some names that do not resolve with any classpath,
+        // so only rerun if one of them may come from a dropped entry
+        if (ClasspathPruner.mayResolveInDropped(unresolvedNames, classpath, prunedClasspath, hierarchy)) {
+            System.out.println(
+                "Some of " + unresolvedNames.size() + " names that did not resolve may come from" +
+                    " pruned classpath entries, remapping again with the full classpath"
+            );
+            action.run(createRemapper(
+                sourceRoot,
+                classpath,
+                mappingFile,
+                indexes,
+                hierarchy,
+                ConcurrentHashMap.newKeySet(),
+                referencedSymbols,
+                threads,
+                batchSize,
+                stagingRoot,
+                extraTargets,
+                mixinFiles,
+                report
+            ));
         }
+    }
+            
+    private static ShardedRemapper createRemapper(
+        Path sourceRoot,
+        List<Path> classpath,
+        File mappingFile,
+        Map<File, LazyMappingSet.Index> indexes,
+        ClassHierarchyIndex hierarchy,
+        Set<String> unresolvedNames,
+        Map<String, Set<String>> referencedSymbols,
+        int threads,
+        int batchSize,
+        Path stagingRoot,
+        List<ExtraTarget> extraTargets,
+        Set<String> mixinFiles,
+        RemapReport report
+    ) {
+        // MappingSets are mutated while remapping, so each worker thread builds its own
+        // from an index that is loaded once and shared
+        return new ShardedRemapper(
+            classpath,
+            () -> {
+                MappingSet mappingSet;
+                List<FanOutRemapper.Target> targets = new ArrayList<>();
+                try (RemapReport.Timer ignored = report.start("load_mapping_set")) {
+                    mappingSet = readMappingSet(mappingFile, indexes);
+                    for (ExtraTarget target : extraTargets) {
+                        // Names that do not resolve are the same for every target, they are collected once
+                        targets.add(new FanOutRemapper.Target(
+                            new MyRemapper(
+                                readMappingSet(target.mappingFile, indexes),
+                                hierarchy,
+                                ConcurrentHashMap.newKeySet(),
+                                null
+                            ),
+                            target.output
+                        ));
+                    }
+                }
+            
+                List<SourceProcessor> processors = new ArrayList<>(
+                    createProcessors(mappingSet, hierarchy, unresolvedNames, referencedSymbols)
+                );
+                if (!targets.isEmpty()) {
+                    processors.add(new FanOutRemapper(sourceRoot, targets, mixinFiles));
+                }
+                return report.instrument(processors);
+            },
+            threads,
+            batchSize,
+            stagingRoot
+        );
+    }
+            
+    private static List<SourceRewriter> createProcessors(
+        MappingSet mappingSet,
+        ClassHierarchyIndex hierarchy,
+        Set<String> unresolvedNames,
+        Map<String, Set<String>> referencedSymbols
+    ) {
+        return Arrays.asList(
+            MixinRemapper.create(mappingSet),
+            new MyRemapper(mappingSet, hierarchy, unresolvedNames, referencedSymbols)
+        );
+    }
         
-        private void writeMappingData(Map<String, String> data, File textFile) {
+    private static MappingSet readMappingSet(File mappingFile, Map<File, LazyMappingSet.Index> indexes) {
+        LazyMappingSet.Index index = indexes.computeIfAbsent(mappingFile, file -> {
             try {
-                textFile.createNewFile();
-            }
-            catch (IOException e) {
-                e.printStackTrace();
-            }
-            try (FileWriter fileWriter = new FileWriter(textFile)) {
-                data.entrySet().stream()
-                    .sorted(Comparator.comparing(Map.Entry::getKey))
-                    .forEach(entry -> {
-                        try {
-                            fileWriter.write(entry.getKey() + "->" + entry.getValue() + "\n");
-                        }
-                        catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    });
-                fileWriter.flush();
+                return LazyMappingSet.Index.load(file);
             }
             catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
-        }
+        });
+        return new LazyMappingSet(index);
     }
     
 }
@@ -0,0 +1,96 @@
+package devoldefy;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the remaps of several config files in one JVM. Downloads and chained mappings go to
+ * one shared cache directory, so configs with the same versions download and chain them once,
+ * and loaded mappings and class hierarchy indexes are shared in memory.
+ *
+ * Usage: DevoldefyBatch [--jobs n] [--cache dir] (config | @manifest)...
+ * A manifest is a text file with one config name per line, lines starting with # are ignored.
+ */
+public class DevoldefyBatch {
+    public static void main(String[] args) throws Exception {
+        int jobs = Runtime.getRuntime().availableProcessors();
+        File sharedCacheDir = new File("devoldefy_shared_cache");
+        List<String> configs = new ArrayList<>();
+        
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i].trim();
+            if (arg.equals("--jobs")) {
+                jobs = Integer.parseInt(args[++i]);
+            }
+            else if (arg.equals("--cache")) {
+                sharedCacheDir = new File(args[++i]);
+            }
+            else if (arg.startsWith("@")) {
+                for (String line : Files.readAllLines(new File(arg.substring(1)).toPath(), StandardCharsets.UTF_8)) {
+                    line = line.trim();
+                    if (!line.isEmpty() && !line.startsWith("#")) {
+                        configs.add(line);
+                    }
+                }
+            }
+            else {
+                configs.add(arg);
+            }
+        }
+        
+        if (configs.isEmpty()) {
+            System.out.println("Usage: DevoldefyBatch [--jobs n] [--cache dir] (config | @manifest)...");
+            System.exit(2);
+        }
+        
+        System.exit(runAll(configs, jobs, sharedCacheDir) ? 0 : 1);
+    }
+    
+    /**
+     * Runs at most jobs configs at the same time.
+     *
+     * @return whether all of them succeeded
+     */
+    static boolean runAll(List<String> configs, int jobs, File sharedCacheDir) throws InterruptedException {
+        WarmCaches.enable(configs.size());
+        
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(jobs, configs.size())));
+        Map<String, Future<Long>> futures = new LinkedHashMap<>();
+        for (String config : configs) {
+            futures.put(config, executor.submit(() -> {
+                long jobStart = System.nanoTime();
+                Devoldefy.run(config, false, sharedCacheDir);
+                return (System.nanoTime() - jobStart) / 1000000;
+            }));
+        }
+        executor.shutdown();
+        
+        boolean success = true;
+        List<String> results = new ArrayList<>();
+        for (Map.Entry<String, Future<Long>> entry : futures.entrySet()) {
+            try {
+                results.add(entry.getKey() + ": OK in " + entry.getValue().get() + " ms");
+            }
+            catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+                results.add(entry.getKey() + ": FAILED " + e.getCause());
+                success = false;
+            }
+        }
+        
+        for (String result : results) {
+            System.out.println(result);
+        }
+        System.out.println(
+            "Ran " + configs.size() + " configs in " + (System.nanoTime() - start) / 1000000 + " ms"
+        );
+        return success;
+    }
+}
@@ -0,0 +1,58 @@
+package devoldefy;
+
+import com.google.gson.Gson;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Sends a remap job to a running {@link DevoldefyDaemon} and prints its output.
+ *
+ * Usage: DevoldefyClient config [port]
+ */
+public class DevoldefyClient {
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Usage: DevoldefyClient config [port]");
+            System.exit(2);
+        }
+        
+        DevoldefyDaemon.Job job = new DevoldefyDaemon.Job();
+        // The daemon may run in another directory
+        job.configFileName = new File(args[0].trim()).getAbsolutePath();
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : DevoldefyDaemon.DEFAULT_PORT;
+        
+        Path tokenFile = DevoldefyDaemon.tokenFile(port);
+        if (!Files.exists(tokenFile)) {
+            System.err.println("No daemon token in " + tokenFile + ", is the daemon running?");
+            System.exit(1);
+        }
+        job.token = new String(Files.readAllBytes(tokenFile), StandardCharsets.UTF_8).trim();
+        
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            out.write(new Gson().toJson(job) + "\n");
+            out.flush();
+            
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                socket.getInputStream(),
+                StandardCharsets.UTF_8
+            ));
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(DevoldefyDaemon.RESULT_PREFIX)) {
+                    String result = line.substring(DevoldefyDaemon.RESULT_PREFIX.length());
+                    System.exit(result.equals("OK") ? 0 : 1);
+                }
+                System.out.println(line);
+            }
+        }
+        
+        System.err.println("Daemon closed the connection without a result");
+        System.exit(1);
+    }
+}
@@ -0,0 +1,177 @@
+package devoldefy;
+
+import com.google.gson.Gson;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * Long running process that accepts remap jobs from {@link DevoldefyClient} on a local port,
+ * so the JVM and the loaded mappings and class hierarchy indexes stay warm between runs.
+ * Jobs run one after another.
+ * <p>
+ * Any local process can connect to the port, so every job has to carry a random token that the
+ * daemon writes to a file only its user can read.
+ *
+ * Usage: DevoldefyDaemon [port] [cached versions]
+ */
+public class DevoldefyDaemon {
+    static final int DEFAULT_PORT = 25989;
+    static final String RESULT_PREFIX = "#devoldefy-result ";
+    
+    static class Job {
+        String token;
+        String configFileName;
+    }
+    
+    static Path tokenFile(int port) {
+        return Paths.get(System.getProperty("user.home"), ".devoldefy", "daemon_" + port + ".token");
+    }
+    
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int cacheSize = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        
+        WarmCaches.enable(cacheSize);
+        
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            String token = writeToken(tokenFile(port));
+            System.out.println("Devoldefy daemon listening on port " + port);
+            while (true) {
+                try (Socket socket = server.accept()) {
+                    handle(socket, token);
+                }
+                catch (IOException e) {
+                    System.err.println("Lost connection to client. " + e);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Writes a new random token to a file that only the current user can read.
+     */
+    private static String writeToken(Path file) throws IOException {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        String token = Devoldefy.toHex(bytes);
+        
+        Path directory = file.getParent();
+        boolean posix = directory.getFileSystem().supportedFileAttributeViews().contains("posix");
+        if (posix) {
+            try {
+                Files.createDirectory(directory, PosixFilePermissions.asFileAttribute(
+                    PosixFilePermissions.fromString("rwx------")
+                ));
+            }
+            catch (FileAlreadyExistsException e) {
+                Files.setPosixFilePermissions(directory, PosixFilePermissions.fromString("rwx------"));
+            }
+        }
+        else {
+            Files.createDirectories(directory);
+        }
+        
+        // A new file, so nobody can hold it open from before the permissions were set
+        Files.deleteIfExists(file);
+        if (posix) {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }
+        else {
+            File created = Files.createFile(file).toFile();
+            created.setReadable(false, false);
+            created.setWritable(false, false);
+            created.setReadable(true, true);
+            created.setWritable(true, true);
+        }
+        Files.write(file, token.getBytes(StandardCharsets.UTF_8));
+        file.toFile().deleteOnExit();
+        return token;
+    }
+    
+    private static void handle(Socket socket, String token) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+            socket.getInputStream(),
+            StandardCharsets.UTF_8
+        ));
+        PrintStream client = new PrintStream(socket.getOutputStream(), true, "UTF-8");
+        
+        Job job = new Gson().fromJson(in.readLine(), Job.class);
+        if (job == null || job.token == null || !MessageDigest.isEqual(
+            job.token.getBytes(StandardCharsets.UTF_8),
+            token.getBytes(StandardCharsets.UTF_8)
+        )) {
+            System.err.println("Rejected a job without the daemon token");
+            client.println(RESULT_PREFIX + "FAILED wrong or missing token");
+            return;
+        }
+        if (job.configFileName == null) {
+            client.println(RESULT_PREFIX + "FAILED no config file given");
+            return;
+        }
+        
+        System.out.println("Running job " + job.configFileName);
+        long start = System.nanoTime();
+        
+        // Jobs run one at a time, so the output can be sent to the client while a job runs
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        System.setOut(new PrintStream(new TeeOutputStream(out, client), true));
+        System.setErr(new PrintStream(new TeeOutputStream(err, client), true));
+        String result;
+        try {
+            Devoldefy.run(job.configFileName, false);
+            result = "OK";
+        }
+        catch (Throwable t) {
+            t.printStackTrace();
+            result = "FAILED " + t;
+        }
+        finally {
+            System.setOut(out);
+            System.setErr(err);
+        }
+        
+        System.out.println("Job " + job.configFileName + " finished in " +
+            (System.nanoTime() - start) / 1000000 + " ms: " + result);
+        client.println(RESULT_PREFIX + result);
+    }
+    
+    private static class TeeOutputStream extends OutputStream {
+        private final OutputStream first;
+        private final OutputStream second;
+        
+        TeeOutputStream(OutputStream first, OutputStream second) {
+            this.first = first;
+            this.second = second;
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            first.write(b);
+            second.write(b);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            first.write(b, off, len);
+            second.write(b, off, len);
+        }
+        
+        @Override
+        public void flush() throws IOException {
+            first.flush();
+            second.flush();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package devoldefy;
+
+import org.cadixdev.mercury.RewriteContext;
+import org.cadixdev.mercury.SourceRewriter;
+import org.eclipse.jdt.core.dom.*;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Remaps every file to additional mapping targets while Mercury still holds its parsed and
+ * bound compilation unit, so binding resolution is shared by all targets.
+ * Each target gets its own rewrites and writes its own output tree.
+ * <p>
+ * The mixin remapper needs Mercury's own rewrite context, so files that use mixins are only
+ * collected here and have to be remapped to the other targets separately.
+ */
+class FanOutRemapper implements SourceRewriter {
+    private static final String MIXIN = "org.spongepowered.asm.mixin.Mixin";
+    
+    static class Target {
+        final MyRemapper remapper;
+        final Path output;
+        
+        Target(MyRemapper remapper, Path output) {
+            this.remapper = remapper;
+            this.output = output;
+        }
+    }
+    
+    private final Path sourceRoot;
+    private final List<Target> targets;
+    private final Set<String> mixinFiles;
+    
+    /**
+     * @param sourceRoot the source tree, Mercury gives the files relative to the directory it rewrites,
+     *                   which has the same layout
+     * @param mixinFiles receives the files that use mixins, relative to the source root
+     */
+    FanOutRemapper(Path sourceRoot, List<Target> targets, Set<String> mixinFiles) {
+        this.sourceRoot = sourceRoot;
+        this.targets = targets;
+        this.mixinFiles = mixinFiles;
+    }
+    
+    @Override
+    public int getFlags() {
+        return FLAG_RESOLVE_BINDINGS;
+    }
+    
+    @Override
+    public void rewrite(RewriteContext context) throws Exception {
+        if (hasMixin(context.getCompilationUnit())) {
+            mixinFiles.add(context.getSourceFile().toString().replace(File.separatorChar, '/'));
+            return;
+        }
+        
+        Charset encoding = context.getMercury().getEncoding();
+        String source = new String(Files.readAllBytes(sourceRoot.resolve(context.getSourceFile())), encoding);
+        
+        for (Target target : targets) {
+            TargetRemapContext targetContext = new TargetRemapContext(context);
+            target.remapper.remap(targetContext);
+            
+            Path file = target.output.resolve(
+                targetContext.getQualifiedPrimaryType().replace('.', '/') + ".java"
+            );
+            Files.createDirectories(file.getParent());
+            Files.write(file, targetContext.apply(source).getBytes(encoding));
+        }
+    }
+    
+    private static boolean hasMixin(CompilationUnit unit) {
+        MixinFinder finder = new MixinFinder();
+        unit.accept(finder);
+        return finder.found;
+    }
+    
+    private static class MixinFinder extends ASTVisitor {
+        boolean found;
+        
+        @Override
+        public boolean visit(MarkerAnnotation node) {
+            check(node);
+            return false;
+        }
+        
+        @Override
+        public boolean visit(NormalAnnotation node) {
+            check(node);
+            return false;
+        }
+        
+        @Override
+        public boolean visit(SingleMemberAnnotation node) {
+            check(node);
+            return false;
+        }
+        
+        private void check(Annotation node) {
+            ITypeBinding binding = node.resolveTypeBinding();
+            if (binding != null && MIXIN.equals(binding.getQualifiedName())) {
+                found = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package devoldefy;
+
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.eclipse.jdt.core.dom.Modifier;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.cadixdev.mercury.util.BombeBindings.isPackagePrivate;
+
+/**
+ * The member types a type declares or inherits, which can be used by simple name inside it.
+ * Collected once per type and shared by all compilation units of a remapper.
+ * Whether private and package private types are visible depends on the compilation unit,
+ * so that is left to the caller.
+ */
+class InheritedTypeNames {
+    private final MappingSet mappings;
+    private final Map<String, List<Entry>> types = new HashMap<>();
+    
+    static class Entry {
+        final String bindingKey;
+        final String binaryName;
+        final boolean isPrivate;
+        final boolean isPackagePrivate;
+        final String packageName;
+        final String simpleName;
+        final String qualifiedName;
+        
+        Entry(ITypeBinding inner, ClassMapping<?, ?> mapping) {
+            int modifiers = inner.getModifiers();
+            this.bindingKey = inner.getKey();
+            this.binaryName = inner.getBinaryName();
+            this.isPrivate = Modifier.isPrivate(modifiers);
+            this.isPackagePrivate = isPackagePrivate(modifiers);
+            if (mapping != null) {
+                packageName = mapping.getDeobfuscatedPackage();
+                simpleName = mapping.getSimpleDeobfuscatedName();
+                qualifiedName = mapping.getFullDeobfuscatedName().replace('/', '.').replace(
+                    '$',
+                    '.'
+                );
+            }
+            else {
+                packageName = inner.getPackage().getName();
+                simpleName = inner.getName();
+                qualifiedName = inner.getBinaryName().replace('$', '.');
+            }
+        }
+    }
+    
+    InheritedTypeNames(MappingSet mappings) {
+        this.mappings = mappings;
+    }
+    
+    List<Entry> get(ITypeBinding binding) {
+        if (binding == null) {
+            return Collections.emptyList();
+        }
+        binding = binding.getErasure();
+        
+        List<Entry> entries = types.get(binding.getKey());
+        if (entries == null) {
+            entries = new ArrayList<>();
+            
+            // Names from inner classes
+            for (ITypeBinding inner : binding.getDeclaredTypes()) {
+                ClassMapping<?, ?> mapping = this.mappings.getClassMapping(inner.getBinaryName()).orElse(
+                    null);
+                entries.add(new Entry(inner, mapping));
+            }
+            
+            // Inherited names
+            entries.addAll(get(binding.getSuperclass()));
+            for (ITypeBinding parent : binding.getInterfaces()) {
+                entries.addAll(get(parent));
+            }
+            
+            types.put(binding.getKey(), entries);
+        }
+        return entries;
+    }
+}
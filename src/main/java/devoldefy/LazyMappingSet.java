@@ -0,0 +1,150 @@
+package devoldefy;
+
+import org.cadixdev.lorenz.impl.MappingSetImpl;
+import org.cadixdev.lorenz.impl.MappingSetModelFactoryImpl;
+import org.cadixdev.lorenz.model.TopLevelClassMapping;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * A mapping set that only creates the mappings of a top level class, its inner classes
+ * and their members when they are first looked up. A mod usually uses a few hundred of
+ * the game's classes, so most of the mapping is never turned into Lorenz objects.
+ * All other lookups go through the top level class methods, so only those are overridden.
+ */
+class LazyMappingSet extends MappingSetImpl {
+    private final Index index;
+    private final Set<String> pending;
+    private final MappingSetBuilder builder = new MappingSetBuilder(this);
+    
+    /**
+     * The entries of a chained mapping grouped by their top level class.
+     * It is not changed after loading, so all mapping sets of a run share it.
+     */
+    static class Index implements MappingConsumer {
+        private final Map<String, Group> groups = new HashMap<>();
+        
+        static Index load(File mappingFile) throws IOException {
+            return WarmCaches.mappingIndex(mappingFile, () -> {
+                Index index = new Index();
+                BinaryMappings.read(mappingFile, index);
+                for (Group group : index.groups.values()) {
+                    group.trim();
+                }
+                return index;
+            });
+        }
+        
+        private Group group(String className) {
+            int inner = className.indexOf('$');
+            String topLevel = inner == -1 ? className : className.substring(0, inner);
+            return groups.computeIfAbsent(topLevel, k -> new Group());
+        }
+        
+        @Override
+        public void acceptClass(String from, String to) {
+            Group group = group(from);
+            group.classes.add(from);
+            group.classes.add(to);
+        }
+        
+        @Override
+        public void acceptField(Member from, Member to) {
+            Group group = group(from.owner);
+            group.fields.add(from);
+            group.fields.add(to);
+        }
+        
+        @Override
+        public void acceptMethod(Member from, Member to) {
+            Group group = group(from.owner);
+            group.methods.add(from);
+            group.methods.add(to);
+        }
+        
+        @Override
+        public void acceptParameter(Member method, int index, String name) {
+            Group group = group(method.owner);
+            group.parameterMethods.add(method);
+            group.parameterIndexes.add(index);
+            group.parameterNames.add(name);
+        }
+    }
+    
+    private static class Group {
+        // Pairs of source and target
+        final ArrayList<String> classes = new ArrayList<>();
+        final ArrayList<Member> fields = new ArrayList<>();
+        final ArrayList<Member> methods = new ArrayList<>();
+        
+        final ArrayList<Member> parameterMethods = new ArrayList<>();
+        final ArrayList<Integer> parameterIndexes = new ArrayList<>();
+        final ArrayList<String> parameterNames = new ArrayList<>();
+        
+        void trim() {
+            classes.trimToSize();
+            fields.trimToSize();
+            methods.trimToSize();
+            parameterMethods.trimToSize();
+            parameterIndexes.trimToSize();
+            parameterNames.trimToSize();
+        }
+        
+        void accept(MappingConsumer consumer) {
+            for (int i = 0; i < classes.size(); i += 2) {
+                consumer.acceptClass(classes.get(i), classes.get(i + 1));
+            }
+            for (int i = 0; i < fields.size(); i += 2) {
+                consumer.acceptField(fields.get(i), fields.get(i + 1));
+            }
+            for (int i = 0; i < methods.size(); i += 2) {
+                consumer.acceptMethod(methods.get(i), methods.get(i + 1));
+            }
+            for (int i = 0; i < parameterMethods.size(); i++) {
+                consumer.acceptParameter(parameterMethods.get(i), parameterIndexes.get(i), parameterNames.get(i));
+            }
+        }
+    }
+    
+    LazyMappingSet(Index index) {
+        super(new MappingSetModelFactoryImpl());
+        this.index = index;
+        this.pending = new HashSet<>(index.groups.keySet());
+    }
+    
+    private void materialize(String topLevelName) {
+        String name = topLevelName.replace('.', '/');
+        // Removed first, creating the mappings looks the class up again
+        if (pending.remove(name)) {
+            index.groups.get(name).accept(builder);
+        }
+    }
+    
+    @Override
+    public TopLevelClassMapping getOrCreateTopLevelClassMapping(String obfuscatedName) {
+        materialize(obfuscatedName);
+        return super.getOrCreateTopLevelClassMapping(obfuscatedName);
+    }
+    
+    @Override
+    public Optional<TopLevelClassMapping> getTopLevelClassMapping(String obfuscatedName) {
+        materialize(obfuscatedName);
+        return super.getTopLevelClassMapping(obfuscatedName);
+    }
+    
+    @Override
+    public boolean hasTopLevelClassMapping(String obfuscatedName) {
+        materialize(obfuscatedName);
+        return super.hasTopLevelClassMapping(obfuscatedName);
+    }
+    
+    @Override
+    public Collection<? extends TopLevelClassMapping> getTopLevelClassMappings() {
+        for (String name : new ArrayList<>(pending)) {
+            materialize(name);
+        }
+        return super.getTopLevelClassMappings();
+    }
+}
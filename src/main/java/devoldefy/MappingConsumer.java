@@ -0,0 +1,20 @@
+package devoldefy;
+
+/**
+ * Receives mapping entries one by one, so mappings can be passed on
+ * without building a full copy at every step.
+ */
+interface MappingConsumer {
+    void acceptClass(String from, String to);
+    
+    void acceptField(Member from, Member to);
+    
+    void acceptMethod(Member from, Member to);
+    
+    /**
+     * Names a parameter of a method that was passed to {@link #acceptMethod} before.
+     *
+     * @param index the local variable index of the parameter
+     */
+    void acceptParameter(Member method, int index, String name);
+}
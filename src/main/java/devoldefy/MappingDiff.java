@@ -0,0 +1,83 @@
+package devoldefy;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * The names whose mapping differs between two chained mappings.
+ * Members are compared by name only, because a member mapping also applies to the
+ * members that inherit it, so a file is affected by a change if it uses any member
+ * of that name.
+ */
+class MappingDiff {
+    /**
+     * Stands for references that cannot be listed, the file is affected by every change.
+     */
+    static final String ANY = "*";
+    
+    private final Set<String> changed = new HashSet<>();
+    
+    static String classKey(String binaryName) {
+        return "c:" + binaryName.replace('.', '/');
+    }
+    
+    static String fieldKey(String name) {
+        return "f:" + name;
+    }
+    
+    static String methodKey(String name) {
+        return "m:" + name;
+    }
+    
+    static MappingDiff compute(File before, File after) throws IOException {
+        Mappings oldMappings = new Mappings();
+        BinaryMappings.read(before, oldMappings);
+        Mappings newMappings = new Mappings();
+        BinaryMappings.read(after, newMappings);
+        
+        MappingDiff diff = new MappingDiff();
+        diff.compare(oldMappings.classes, newMappings.classes, MappingDiff::classKey);
+        diff.compare(oldMappings.fields, newMappings.fields, member -> fieldKey(member.name));
+        diff.compare(oldMappings.methods, newMappings.methods, member -> methodKey(member.name));
+        diff.compare(oldMappings.parameters, newMappings.parameters, member -> methodKey(member.name));
+        return diff;
+    }
+    
+    private <K, V> void compare(Map<K, V> before, Map<K, V> after, Function<K, String> key) {
+        before.forEach((from, to) -> {
+            if (!Objects.equals(to, after.get(from))) {
+                changed.add(key.apply(from));
+            }
+        });
+        for (K from : after.keySet()) {
+            if (!before.containsKey(from)) {
+                changed.add(key.apply(from));
+            }
+        }
+    }
+    
+    int size() {
+        return changed.size();
+    }
+    
+    boolean affects(Collection<String> symbols) {
+        if (changed.isEmpty()) {
+            return false;
+        }
+        if (symbols.contains(ANY)) {
+            return true;
+        }
+        for (String symbol : symbols) {
+            if (changed.contains(symbol)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
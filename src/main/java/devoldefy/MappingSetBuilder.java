@@ -0,0 +1,44 @@
+package devoldefy;
+
+import org.cadixdev.lorenz.MappingSet;
+
+/**
+ * Puts mapping entries straight into a Lorenz mapping set.
+ */
+class MappingSetBuilder implements MappingConsumer {
+    private final MappingSet mappingSet;
+    
+    MappingSetBuilder(MappingSet mappingSet) {
+        this.mappingSet = mappingSet;
+    }
+    
+    @Override
+    public void acceptClass(String from, String to) {
+        mappingSet.getOrCreateClassMapping(from).setDeobfuscatedName(to);
+    }
+    
+    @Override
+    public void acceptField(Member from, Member to) {
+        mappingSet
+            .getOrCreateClassMapping(from.owner)
+            .getOrCreateFieldMapping(from.name)
+            .setDeobfuscatedName(to.name);
+    }
+    
+    @Override
+    public void acceptMethod(Member from, Member to) {
+        mappingSet
+            .getOrCreateClassMapping(from.owner)
+            .getOrCreateMethodMapping(from.name, from.descriptor)
+            .setDeobfuscatedName(to.name);
+    }
+    
+    @Override
+    public void acceptParameter(Member method, int index, String name) {
+        mappingSet
+            .getOrCreateClassMapping(method.owner)
+            .getOrCreateMethodMapping(method.name, method.descriptor)
+            .getOrCreateParameterMapping(index)
+            .setDeobfuscatedName(name);
+    }
+}
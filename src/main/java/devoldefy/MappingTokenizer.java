@@ -0,0 +1,242 @@
+package devoldefy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits line based mapping files (tsrg, tiny, MCP csv) into fields.
+ * Lines are read into a reused buffer and fields are only turned into strings on request.
+ * Leading tabs are reported as the indent of the line instead of as fields.
+ */
+class MappingTokenizer implements Closeable {
+    private final Reader reader;
+    private final char delimiter;
+    private final boolean quoted;
+    
+    private final char[] buffer = new char[1 << 16];
+    private int bufferPosition;
+    private int bufferLimit;
+    
+    private char[] line = new char[256];
+    private int lineLength;
+    private int indent;
+    
+    private int[] fieldStarts = new int[8];
+    private int[] fieldEnds = new int[8];
+    private boolean[] fieldQuoted = new boolean[8];
+    private int fieldCount;
+    
+    /**
+     * @param quoted whether fields may be wrapped in double quotes like in csv files
+     */
+    MappingTokenizer(InputStream in, char delimiter, boolean quoted) {
+        this.reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+        this.delimiter = delimiter;
+        this.quoted = quoted;
+    }
+    
+    /**
+     * Advances to the next line. Line breaks inside quoted fields do not end the line.
+     *
+     * @return false at the end of the input
+     */
+    boolean nextLine() throws IOException {
+        lineLength = 0;
+        boolean readAnything = false;
+        boolean insideQuotes = false;
+        boolean fieldStart = true;
+        boolean afterClosingQuote = false;
+        
+        while (true) {
+            if (bufferPosition == bufferLimit) {
+                int read = reader.read(buffer, 0, buffer.length);
+                if (read == -1) {
+                    if (!readAnything) {
+                        fieldCount = 0;
+                        return false;
+                    }
+                    break;
+                }
+                bufferPosition = 0;
+                bufferLimit = read;
+            }
+            
+            char c = buffer[bufferPosition++];
+            readAnything = true;
+            
+            if (c == '\n' && !insideQuotes) {
+                break;
+            }
+            
+            // Quotes only start a quoted part at the start of a field, like in split().
+            // An escaped quote ("") closes the quoted part and opens it again right away.
+            boolean closingQuote = false;
+            if (quoted && c == '"') {
+                if (insideQuotes) {
+                    insideQuotes = false;
+                    closingQuote = true;
+                }
+                else if (fieldStart || afterClosingQuote) {
+                    insideQuotes = true;
+                }
+            }
+            afterClosingQuote = closingQuote;
+            fieldStart = c == delimiter;
+            
+            if (lineLength == line.length) {
+                char[] grown = new char[line.length * 2];
+                System.arraycopy(line, 0, grown, 0, lineLength);
+                line = grown;
+            }
+            line[lineLength++] = c;
+        }
+        
+        if (lineLength > 0 && line[lineLength - 1] == '\r') {
+            lineLength--;
+        }
+        
+        split();
+        return true;
+    }
+    
+    private void split() {
+        fieldCount = 0;
+        
+        int i = 0;
+        while (i < lineLength && line[i] == '\t') {
+            i++;
+        }
+        indent = i;
+        
+        if (i == lineLength) {
+            return;
+        }
+        
+        while (true) {
+            if (quoted && i < lineLength && line[i] == '"') {
+                int start = ++i;
+                while (i < lineLength) {
+                    if (line[i] == '"') {
+                        if (i + 1 < lineLength && line[i + 1] == '"') {
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                addField(start, i, true);
+                
+                while (i < lineLength && line[i] != delimiter) {
+                    i++;
+                }
+            }
+            else {
+                int start = i;
+                while (i < lineLength && line[i] != delimiter) {
+                    i++;
+                }
+                addField(start, i, false);
+            }
+            
+            if (i >= lineLength) {
+                break;
+            }
+            i++;
+        }
+    }
+    
+    private void addField(int start, int end, boolean isQuoted) {
+        if (fieldCount == fieldStarts.length) {
+            int size = fieldCount * 2;
+            int[] starts = new int[size];
+            int[] ends = new int[size];
+            boolean[] quotes = new boolean[size];
+            System.arraycopy(fieldStarts, 0, starts, 0, fieldCount);
+            System.arraycopy(fieldEnds, 0, ends, 0, fieldCount);
+            System.arraycopy(fieldQuoted, 0, quotes, 0, fieldCount);
+            fieldStarts = starts;
+            fieldEnds = ends;
+            fieldQuoted = quotes;
+        }
+        
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        fieldQuoted[fieldCount] = isQuoted;
+        fieldCount++;
+    }
+    
+    /**
+     * The number of leading tabs of the current line.
+     */
+    int indent() {
+        return indent;
+    }
+    
+    int fieldCount() {
+        return fieldCount;
+    }
+    
+    String field(int index) {
+        if (index >= fieldCount) {
+            throw new IndexOutOfBoundsException(
+                "Field " + index + " of line \"" + new String(line, 0, lineLength) + "\""
+            );
+        }
+        
+        int start = fieldStarts[index];
+        int end = fieldEnds[index];
+        
+        if (fieldQuoted[index]) {
+            StringBuilder result = null;
+            for (int i = start; i < end; i++) {
+                if (line[i] == '"') {
+                    if (result == null) {
+                        result = new StringBuilder(end - start);
+                        result.append(line, start, i - start);
+                    }
+                    i++;
+                }
+                if (result != null) {
+                    result.append(line[i]);
+                }
+            }
+            if (result != null) {
+                return result.toString();
+            }
+        }
+        
+        return new String(line, start, end - start);
+    }
+    
+    /**
+     * Compares a field without creating a string for it.
+     */
+    boolean fieldEquals(int index, String value) {
+        if (index >= fieldCount) {
+            return false;
+        }
+        
+        int start = fieldStarts[index];
+        int length = fieldEnds[index] - start;
+        if (length != value.length()) {
+            return false;
+        }
+        
+        for (int i = 0; i < length; i++) {
+            if (line[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
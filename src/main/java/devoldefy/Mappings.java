@@ -0,0 +1,208 @@
+package devoldefy;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+class Mappings implements MappingConsumer {
+    public final SymbolTable symbols;
+    public final Map<String, String> classes = new LinkedHashMap<>();
+    public final Map<Member, Member> fields = new LinkedHashMap<>();
+    public final Map<Member, Member> methods = new LinkedHashMap<>();
+    /**
+     * Parameter names by method and local variable index, in the target namespace.
+     */
+    public final Map<Member, Map<Integer, String>> parameters = new LinkedHashMap<>();
+    
+    public Mappings() {
+        this(new SymbolTable());
+    }
+    
+    public Mappings(SymbolTable symbols) {
+        this.symbols = symbols;
+    }
+    
+    /**
+     * Rewrites the class names in the target method descriptors,
+     * which are read with the source side class names.
+     */
+    public void remapTargetDescriptors() {
+        DescriptorRemapper remapper = new DescriptorRemapper(classes);
+        methods.replaceAll((a, b) -> {
+            String descriptor = remapper.remap(b.descriptor);
+            return descriptor == b.descriptor ? b : symbols.member(b.owner, b.name, descriptor);
+        });
+    }
+    
+    public Mappings chain(Mappings other, boolean defaultIfMissing) {
+        Mappings result = new Mappings(symbols);
+        
+        if (defaultIfMissing) {
+            classes.forEach((a, b) -> result.classes.put(
+                a, other.classes.getOrDefault(b, b)
+            ));
+            fields.forEach((a, b) -> result.fields.put(
+                a, other.fields.getOrDefault(b, b)
+            ));
+            methods.forEach((a, b) -> result.methods.put(
+                a, other.methods.getOrDefault(b, b)
+            ));
+        }
+        else {
+            classes.forEach((a, b) -> {
+                String s = other.classes.get(b);
+                if (s != null) {
+                    result.classes.put(a, s);
+                }
+            });
+            fields.forEach((a, b) -> {
+                Member s = other.fields.get(b);
+                if (s != null) {
+                    result.fields.put(a, s);
+                }
+            });
+            methods.forEach((a, b) -> {
+                Member s = other.methods.get(b);
+                if (s != null) {
+                    result.methods.put(a, s);
+                }
+            });
+        }
+        
+        methods.forEach((a, b) -> {
+            Map<Integer, String> s = other.parameters.get(b);
+            if (s != null && result.methods.containsKey(a)) {
+                result.parameters.put(a, s);
+            }
+        });
+        
+        return result;
+    }
+    
+    public Mappings invert() {
+        Mappings result = new Mappings(symbols);
+        
+        classes.forEach((a, b) -> result.classes.put(b, a));
+        fields.forEach((a, b) -> result.fields.put(b, a));
+        methods.forEach((a, b) -> result.methods.put(b, a));
+        // Parameter names only exist in the target namespace, there is nothing to invert them to
+        
+        return result;
+    }
+    
+    /**
+     * Emits first.invert().chain(second, false), inverted again if requested,
+     * without building the intermediate mappings.
+     */
+    public static void chainInverted(
+        Mappings first,
+        Mappings second,
+        boolean invertResult,
+        MappingConsumer consumer
+    ) {
+        first.classes.forEach((a, b) -> {
+            String s = second.classes.get(a);
+            if (s != null) {
+                if (invertResult) {
+                    consumer.acceptClass(s, b);
+                }
+                else {
+                    consumer.acceptClass(b, s);
+                }
+            }
+        });
+        first.fields.forEach((a, b) -> {
+            Member s = second.fields.get(a);
+            if (s != null) {
+                if (invertResult) {
+                    consumer.acceptField(s, b);
+                }
+                else {
+                    consumer.acceptField(b, s);
+                }
+            }
+        });
+        first.methods.forEach((a, b) -> {
+            Member s = second.methods.get(a);
+            if (s != null) {
+                if (invertResult) {
+                    consumer.acceptMethod(s, b);
+                }
+                else {
+                    consumer.acceptMethod(b, s);
+                    
+                    // The first mapping has no parameter names to invert to
+                    Map<Integer, String> parameterNames = second.parameters.get(a);
+                    if (parameterNames != null) {
+                        parameterNames.forEach((index, name) -> consumer.acceptParameter(b, index, name));
+                    }
+                }
+            }
+        });
+    }
+    
+    public void accept(MappingConsumer consumer) {
+        classes.forEach(consumer::acceptClass);
+        fields.forEach(consumer::acceptField);
+        methods.forEach(consumer::acceptMethod);
+        parameters.forEach((method, names) -> names.forEach(
+            (index, name) -> consumer.acceptParameter(method, index, name)
+        ));
+    }
+    
+    @Override
+    public void acceptClass(String from, String to) {
+        classes.put(from, to);
+    }
+    
+    @Override
+    public void acceptField(Member from, Member to) {
+        fields.put(from, to);
+    }
+    
+    @Override
+    public void acceptMethod(Member from, Member to) {
+        methods.put(from, to);
+    }
+    
+    @Override
+    public void acceptParameter(Member method, int index, String name) {
+        parameters.computeIfAbsent(method, k -> new TreeMap<>()).put(index, name);
+    }
+    
+    public void writeDebugMapping(File dir) {
+        dir.mkdirs();
+        writeMappingData(this.classes, new File(dir, "classes.txt"));
+        writeMappingData(this.fields, new File(dir, "fields.txt"));
+        writeMappingData(this.methods, new File(dir, "methods.txt"));
+        writeMappingData(this.parameters, new File(dir, "parameters.txt"));
+    }
+    
+    private void writeMappingData(Map<?, ?> data, File textFile) {
+        try {
+            textFile.createNewFile();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        try (FileWriter fileWriter = new FileWriter(textFile)) {
+            data.entrySet().stream()
+                .map(entry -> entry.getKey() + "->" + entry.getValue() + "\n")
+                .sorted()
+                .forEach(line -> {
+                    try {
+                        fileWriter.write(line);
+                    }
+                    catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                });
+            fileWriter.flush();
+        }
+        catch (IOException e) {
+        }
+    }
+}
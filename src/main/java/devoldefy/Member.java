@@ -0,0 +1,46 @@
+package devoldefy;
+
+import java.util.Objects;
+
+/**
+ * A field or method identified by its owner class, name and descriptor.
+ * Fields read from tsrg and tiny v1 files have no descriptor.
+ */
+final class Member {
+    final String owner;
+    final String name;
+    final String descriptor;
+    private final int hash;
+    
+    Member(String owner, String name, String descriptor) {
+        this.owner = owner;
+        this.name = name;
+        this.descriptor = descriptor;
+        this.hash = (Objects.hashCode(owner) * 31 + name.hashCode()) * 31 + Objects.hashCode(descriptor);
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Member)) {
+            return false;
+        }
+        Member member = (Member) o;
+        return hash == member.hash &&
+            name.equals(member.name) &&
+            Objects.equals(owner, member.owner) &&
+            Objects.equals(descriptor, member.descriptor);
+    }
+    
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+    
+    @Override
+    public String toString() {
+        return owner + ":" + name + (descriptor != null ? descriptor : "");
+    }
+}
@@ -0,0 +1,38 @@
+package devoldefy;
+
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.MethodMapping;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Looks up method mappings of a class by name only, for calls whose signature has no mapping.
+ * The index of a class is built on first use and rebuilt when methods were added to it since.
+ */
+class MethodNameIndex {
+    private final Map<ClassMapping<?, ?>, ClassIndex> classes = new IdentityHashMap<>();
+    
+    private static class ClassIndex {
+        final int methodCount;
+        final Map<String, MethodMapping> byName = new HashMap<>();
+        
+        ClassIndex(ClassMapping<?, ?> classMapping) {
+            methodCount = classMapping.getMethodMappings().size();
+            for (MethodMapping mapping : classMapping.getMethodMappings()) {
+                // Keep the first mapping like the old linear scan did
+                byName.putIfAbsent(mapping.getObfuscatedName(), mapping);
+            }
+        }
+    }
+    
+    MethodMapping find(ClassMapping<?, ?> classMapping, String name) {
+        ClassIndex index = classes.get(classMapping);
+        if (index == null || index.methodCount != classMapping.getMethodMappings().size()) {
+            index = new ClassIndex(classMapping);
+            classes.put(classMapping, index);
+        }
+        return index.byName.get(name);
+    }
+}
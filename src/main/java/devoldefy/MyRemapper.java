@@ -1,16 +1,48 @@
 package devoldefy;
 
+import org.cadixdev.bombe.analysis.InheritanceProvider;
 import org.cadixdev.lorenz.MappingSet;
 import org.cadixdev.mercury.RewriteContext;
 import org.cadixdev.mercury.SourceRewriter;
+import org.cadixdev.mercury.analysis.MercuryInheritanceProvider;
 
+import java.io.File;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MyRemapper implements SourceRewriter {
     private final MappingSet mappings;
+    private final ClassHierarchyIndex classpathHierarchy;
+    private final Set<String> unresolvedNames;
+    private final MethodNameIndex methodNameIndex = new MethodNameIndex();
+    private final ResolutionCache resolutionCache = new ResolutionCache();
+    private final InheritedTypeNames inheritedTypeNames;
+    private final Map<String, Set<String>> referencedSymbols;
     
     public MyRemapper(MappingSet mappings) {
+        this(mappings, null, ConcurrentHashMap.newKeySet(), null);
+    }
+    
+    /**
+     * @param classpathHierarchy answers inheritance questions about classpath classes
+     *                           without going through JDT, may be null
+     * @param unresolvedNames    receives the names JDT could not resolve
+     * @param referencedSymbols  receives the mapped names each file uses, by the path of the file
+     *                           relative to the source root like in {@link RemapManifest}, may be null
+     */
+    MyRemapper(
+        MappingSet mappings,
+        ClassHierarchyIndex classpathHierarchy,
+        Set<String> unresolvedNames,
+        Map<String, Set<String>> referencedSymbols
+    ) {
         this.mappings = Objects.requireNonNull(mappings, "mappings");
+        this.classpathHierarchy = classpathHierarchy;
+        this.unresolvedNames = unresolvedNames;
+        this.inheritedTypeNames = new InheritedTypeNames(mappings);
+        this.referencedSymbols = referencedSymbols;
     }
     
     @Override
@@ -20,7 +52,33 @@ public class MyRemapper implements SourceRewriter {
     
     @Override
     public void rewrite(RewriteContext context) {
-        context.getCompilationUnit().accept(new MyRemapperVisitor(context, this.mappings));
+        remap(RemapContext.of(context));
+    }
+    
+    void remap(RemapContext context) {
+        InheritanceProvider inheritanceProvider = MercuryInheritanceProvider.get(context.getMercury());
+        if (this.classpathHierarchy != null) {
+            inheritanceProvider = this.classpathHierarchy.withFallback(inheritanceProvider);
+        }
+        
+        MyRemapperVisitor visitor = new MyRemapperVisitor(
+            context,
+            this.mappings,
+            inheritanceProvider,
+            this.methodNameIndex,
+            this.resolutionCache,
+            this.inheritedTypeNames
+        );
+        context.getCompilationUnit().accept(visitor);
+        this.unresolvedNames.addAll(visitor.unresolvedNames);
+        
+        if (this.referencedSymbols != null) {
+            // Mercury gives the path relative to the rewritten directory, which has the layout of the source root
+            this.referencedSymbols.put(
+                context.getSourceFile().toString().replace(File.separatorChar, '/'),
+                visitor.referencedSymbols
+            );
+        }
     }
     
 }
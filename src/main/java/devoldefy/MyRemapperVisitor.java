@@ -10,26 +10,35 @@
 
 package devoldefy;
 
+import org.cadixdev.bombe.analysis.InheritanceProvider;
 import org.cadixdev.lorenz.MappingSet;
 import org.cadixdev.lorenz.model.ClassMapping;
 import org.cadixdev.lorenz.model.InnerClassMapping;
 import org.cadixdev.lorenz.model.Mapping;
 import org.cadixdev.lorenz.model.TopLevelClassMapping;
-import org.cadixdev.mercury.RewriteContext;
 import org.cadixdev.mercury.jdt.rewrite.imports.ImportRewrite;
 import org.eclipse.jdt.core.dom.*;
 
 import java.util.*;
 
-import static org.cadixdev.mercury.util.BombeBindings.isPackagePrivate;
-
 class MyRemapperVisitor extends MySimpleRemapperVisitor {
+    // Mixins name their targets in strings, which are not tracked as references
+    private static final String MIXIN = "org.spongepowered.asm.mixin.Mixin";
     
     private final ImportRewrite importRewrite;
     private final Deque<ImportContext> importStack = new ArrayDeque<>();
+    private final InheritedTypeNames inheritedTypeNames;
     
-    MyRemapperVisitor(RewriteContext context, MappingSet mappings) {
-        super(context, mappings);
+    MyRemapperVisitor(
+        RemapContext context,
+        MappingSet mappings,
+        InheritanceProvider inheritanceProvider,
+        MethodNameIndex methodNameIndex,
+        ResolutionCache resolutionCache,
+        InheritedTypeNames inheritedTypeNames
+    ) {
+        super(context, mappings, inheritanceProvider, methodNameIndex, resolutionCache);
+        this.inheritedTypeNames = inheritedTypeNames;
         
         this.importRewrite = context.createImportRewrite();
         importRewrite.setUseContextToFilterImplicitImports(true);
@@ -68,6 +77,11 @@ class MyRemapperVisitor extends MySimpleRemapperVisitor {
             return;
         }
         
+        referenceClass(binding.getBinaryName());
+        if (MIXIN.equals(binding.getBinaryName())) {
+            this.referencedSymbols.add(MappingDiff.ANY);
+        }
+        
         ClassMapping<?, ?> mapping = this.mappings.computeClassMapping(binding.getBinaryName()).orElse(
             null);
         
@@ -170,6 +184,7 @@ class MyRemapperVisitor extends MySimpleRemapperVisitor {
         IBinding binding = node.resolveBinding();
         if (binding == null) {
             System.out.println("Null Binding?" + node);
+            unresolvedNames.add(node.getFullyQualifiedName());
             return false;
         }
         if (binding.getKind() != IBinding.TYPE) {
@@ -177,6 +192,8 @@ class MyRemapperVisitor extends MySimpleRemapperVisitor {
             return true;
         }
         
+        referenceClass(((ITypeBinding) binding).getBinaryName());
+        
         Name qualifier = node.getQualifier();
         IBinding qualifierBinding = qualifier.resolveBinding();
         switch (qualifierBinding.getKind()) {
@@ -221,6 +238,7 @@ class MyRemapperVisitor extends MySimpleRemapperVisitor {
                 case IBinding.TYPE:
                     ITypeBinding typeBinding = (ITypeBinding) binding;
                     String name = typeBinding.getBinaryName();
+                    referenceClass(name);
                     ClassMapping<?, ?> mapping = this.mappings.computeClassMapping(name).orElse(null);
                     if (mapping != null && !name.equals(mapping.getFullDeobfuscatedName().replace(
                         '/',
@@ -240,64 +258,29 @@ class MyRemapperVisitor extends MySimpleRemapperVisitor {
             this.importRewrite.getDefaultImportRewriteContext(),
             this.importStack.peek()
         );
-        collectImportContext(context, binding);
-        this.importStack.push(context);
-    }
     
-    private void collectImportContext(ImportContext context, ITypeBinding binding) {
-        if (binding == null) {
-            return;
-        }
+        for (InheritedTypeNames.Entry inner : this.inheritedTypeNames.get(binding)) {
+            // The names visible in this type change when an inherited inner class is renamed
+            referenceClass(inner.binaryName);
         
-        // Names from inner classes
-        for (ITypeBinding inner : binding.getDeclaredTypes()) {
-            int modifiers = inner.getModifiers();
-            if (Modifier.isPrivate(modifiers)) {
+            if (inner.isPrivate) {
                 // Inner type must be declared in this compilation unit
-                if (this.context.getCompilationUnit().findDeclaringNode(inner) == null) {
+                if (this.context.getCompilationUnit().findDeclaringNode(inner.bindingKey) == null) {
                     continue;
                 }
             }
     
-            ClassMapping<?, ?> mapping = this.mappings.getClassMapping(inner.getBinaryName()).orElse(
-                null);
-    
-            if (isPackagePrivate(modifiers)) {
+            if (inner.isPackagePrivate) {
                 // Must come from the same package
-                String packageName = mapping != null ? mapping.getDeobfuscatedPackage() : inner.getPackage().getName();
-                if (packageName.equals(this.context.getPackageName())) {
+                if (inner.packageName.equals(this.context.getPackageName())) {
                     continue;
                 }
             }
     
-            String simpleName;
-            String qualifiedName;
-            if (mapping != null) {
-                simpleName = mapping.getSimpleDeobfuscatedName();
-                qualifiedName = mapping.getFullDeobfuscatedName().replace('/', '.').replace(
-                    '$',
-                    '.'
-                );
-            }
-            else {
-                simpleName = inner.getName();
-                qualifiedName = inner.getBinaryName().replace('$', '.');
-            }
-    
-            if (!context.conflicts.contains(simpleName)) {
-                String current = context.implicit.putIfAbsent(simpleName, qualifiedName);
-                if (current != null && !current.equals(qualifiedName)) {
-                    context.implicit.remove(simpleName);
-                    context.conflicts.add(simpleName);
-                }
-            }
+            context.add(inner.simpleName, inner.qualifiedName);
         }
         
-        // Inherited names
-        collectImportContext(context, binding.getSuperclass());
-        for (ITypeBinding parent : binding.getInterfaces()) {
-            collectImportContext(context, parent);
-        }
+        this.importStack.push(context);
     }
     
     @Override
@@ -344,20 +327,54 @@ class MyRemapperVisitor extends MySimpleRemapperVisitor {
         this.importStack.pop();
     }
     
+    /**
+     * Only holds the names added in its own scope and looks up the rest in its parent,
+     * so nested scopes do not copy the names of the outer ones.
+     */
     private static class ImportContext extends ImportRewrite.ImportRewriteContext {
+        private static final String CONFLICT = new String("<conflict>");
+        
         private final ImportRewrite.ImportRewriteContext defaultContext;
-        final Map<String, String> implicit;
-        final Set<String> conflicts;
+        private final ImportContext parent;
+        private Map<String, String> implicit;
+        private Set<String> conflicts;
         
         ImportContext(ImportRewrite.ImportRewriteContext defaultContext, ImportContext parent) {
             this.defaultContext = defaultContext;
-            if (parent != null) {
-                this.implicit = new HashMap<>(parent.implicit);
-                this.conflicts = new HashSet<>(parent.conflicts);
+            this.parent = parent;
+        }
+        
+        /**
+         * @return the qualified name, CONFLICT, or null if the name is not known in this scope
+         */
+        private String lookup(String name) {
+            for (ImportContext scope = this; scope != null; scope = scope.parent) {
+                if (scope.conflicts != null && scope.conflicts.contains(name)) {
+                    return CONFLICT;
+                }
+                if (scope.implicit != null) {
+                    String qualifiedName = scope.implicit.get(name);
+                    if (qualifiedName != null) {
+                        return qualifiedName;
+                    }
+                }
             }
-            else {
-                this.implicit = new HashMap<>();
-                this.conflicts = new HashSet<>();
+            return null;
+        }
+        
+        void add(String simpleName, String qualifiedName) {
+            String current = lookup(simpleName);
+            if (current == null) {
+                if (implicit == null) {
+                    implicit = new HashMap<>();
+                }
+                implicit.put(simpleName, qualifiedName);
+            }
+            else if (current != CONFLICT && !current.equals(qualifiedName)) {
+                if (conflicts == null) {
+                    conflicts = new HashSet<>();
+                }
+                conflicts.add(simpleName);
             }
         }
         
@@ -369,14 +386,13 @@ class MyRemapperVisitor extends MySimpleRemapperVisitor {
             }
             
             if (kind == KIND_TYPE) {
-                String current = implicit.get(name);
+                String current = lookup(name);
+                if (current == CONFLICT) {
+                    return RES_NAME_CONFLICT;  // TODO
+                }
                 if (current != null) {
                     return current.equals(qualifier + '.' + name) ? RES_NAME_FOUND : RES_NAME_CONFLICT;
                 }
-                
-                if (conflicts.contains(name)) {
-                    return RES_NAME_CONFLICT;  // TODO
-                }
             }
             
             return RES_NAME_UNKNOWN;
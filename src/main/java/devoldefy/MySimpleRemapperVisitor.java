@@ -13,43 +13,48 @@ package devoldefy;
 import org.cadixdev.bombe.analysis.InheritanceProvider;
 import org.cadixdev.bombe.type.signature.MethodSignature;
 import org.cadixdev.lorenz.MappingSet;
-import org.cadixdev.lorenz.impl.model.AbstractClassMappingImpl;
 import org.cadixdev.lorenz.model.ClassMapping;
-import org.cadixdev.lorenz.model.FieldMapping;
+import org.cadixdev.lorenz.model.Mapping;
 import org.cadixdev.lorenz.model.MethodMapping;
-import org.cadixdev.mercury.RewriteContext;
-import org.cadixdev.mercury.analysis.MercuryInheritanceProvider;
 import org.eclipse.jdt.core.dom.*;
 
-import java.lang.reflect.Field;
-import java.util.Map;
+import java.util.*;
+import java.util.function.Supplier;
 
 import static org.cadixdev.mercury.util.BombeBindings.convertSignature;
 
 /**
- * Remaps only methods and fields.
+ * Remaps only methods, fields and method parameters.
  */
 class MySimpleRemapperVisitor extends ASTVisitor {
     
-    private Field AbstractClassMappingImpl_methods;
-    
-    final RewriteContext context;
+    final RemapContext context;
     final MappingSet mappings;
     private final InheritanceProvider inheritanceProvider;
+    private final MethodNameIndex methodNameIndex;
+    private final ResolutionCache resolutionCache;
+    private final Map<MethodDeclaration, Set<String>> methodNames = new HashMap<>();
+    /**
+     * The names JDT could not resolve, as written in the source.
+     */
+    final Set<String> unresolvedNames = new HashSet<>();
+    /**
+     * The mapped names this compilation unit depends on, see {@link MappingDiff}.
+     */
+    final Set<String> referencedSymbols = new HashSet<>();
     
-    MySimpleRemapperVisitor(RewriteContext context, MappingSet mappings) {
+    MySimpleRemapperVisitor(
+        RemapContext context,
+        MappingSet mappings,
+        InheritanceProvider inheritanceProvider,
+        MethodNameIndex methodNameIndex,
+        ResolutionCache resolutionCache
+    ) {
         this.context = context;
         this.mappings = mappings;
-        this.inheritanceProvider = MercuryInheritanceProvider.get(context.getMercury());
-        
-        try {
-            AbstractClassMappingImpl_methods = AbstractClassMappingImpl.class
-                .getDeclaredField("methods");
-            AbstractClassMappingImpl_methods.setAccessible(true);
-        }
-        catch (NoSuchFieldException e) {
-            e.printStackTrace();
-        }
+        this.inheritanceProvider = inheritanceProvider;
+        this.methodNameIndex = methodNameIndex;
+        this.resolutionCache = resolutionCache;
     }
     
     final void updateIdentifier(SimpleName node, String newName) {
@@ -63,54 +68,42 @@ class MySimpleRemapperVisitor extends ASTVisitor {
         }
     }
     
+    final void referenceClass(String binaryName) {
+        if (binaryName != null) {
+            this.referencedSymbols.add(MappingDiff.classKey(binaryName));
+        }
+    }
+    
     private void remapMethod(SimpleName node, IMethodBinding binding) {
+        String newName = resolve(binding, () -> resolveMethod(binding));
+        if (newName != null) {
+            updateIdentifier(node, newName);
+        }
+    }
+    
+    private String resolveMethod(IMethodBinding binding) {
         ITypeBinding declaringClass = binding.getDeclaringClass();
         ClassMapping<?, ?> classMapping = this.mappings.getOrCreateClassMapping(declaringClass.getBinaryName());
         
         if (binding.isConstructor()) {
-            updateIdentifier(node, classMapping.getSimpleDeobfuscatedName());
+            return classMapping.getSimpleDeobfuscatedName();
         }
-        else {
-            classMapping.complete(this.inheritanceProvider, declaringClass);
-            
-            MethodSignature signature = convertSignature(binding);
-            MethodMapping mapping =
-                classMapping.getMethodMapping(signature).orElse(null);
             
-            //qouteall changed
-            if (mapping == null) {
-                mapping = recoverMethodMapping(binding, classMapping);
-                if (mapping != null) {
-                    System.out.println("Recovered dubious mapping " + signature + "\n" + mapping);
-                }
-            }
+        this.resolutionCache.complete(classMapping, this.inheritanceProvider, declaringClass);
             
-            if (mapping == null) {
-                return;
+        MethodSignature signature = convertSignature(binding);
+        MethodMapping mapping =
+            classMapping.getMethodMapping(signature).orElse(null);
+        
+        //qouteall changed
+        if (mapping == null) {
+            mapping = this.methodNameIndex.find(classMapping, binding.getName());
+            if (mapping != null) {
+                System.out.println("Recovered dubious mapping " + signature + "\n" + mapping);
             }
-            
-            updateIdentifier(node, mapping.getDeobfuscatedName());
         }
-    }
-    
-    private MethodMapping recoverMethodMapping(
-        IMethodBinding binding,
-        ClassMapping<?, ?> classMapping
-    ) {
-        MethodMapping mapping;
-        try {
-            Map<MethodSignature, MethodMapping> methodMap =
-                (Map<MethodSignature, MethodMapping>) AbstractClassMappingImpl_methods.get(
-                    classMapping
-                );
-            mapping = methodMap.entrySet().stream().filter(
-                entry -> entry.getKey().getName().equals(binding.getName())
-            ).findFirst().map(entry -> entry.getValue()).orElse(null);
-        }
-        catch (IllegalAccessException e) {
-            throw new IllegalStateException(e);
-        }
-        return mapping;
+            
+        return mapping != null ? mapping.getDeobfuscatedName() : null;
     }
     
     private void remapField(SimpleName node, IVariableBinding binding) {
@@ -118,43 +111,190 @@ class MySimpleRemapperVisitor extends ASTVisitor {
             return;
         }
         
+        String newName = resolve(binding, () -> resolveField(binding));
+        if (newName != null) {
+            updateIdentifier(node, newName);
+        }
+    }
+    
+    private String resolveField(IVariableBinding binding) {
         ITypeBinding declaringClass = binding.getDeclaringClass();
         if (declaringClass == null) {
-            return;
+            return null;
         }
         
         ClassMapping<?, ?> classMapping = this.mappings.getClassMapping(declaringClass.getBinaryName()).orElse(
             null);
         if (classMapping == null) {
+            return null;
+        }
+        
+        return classMapping.computeFieldMapping(convertSignature(binding))
+            .map(Mapping::getDeobfuscatedName)
+            .orElse(null);
+    }
+    
+    /**
+     * Most references in a mod point to the same few members, so the result is cached by binding key.
+     */
+    private String resolve(IBinding binding, Supplier<String> resolver) {
+        String key = binding.getKey();
+        if (key == null) {
+            return resolver.get();
+        }
+        return this.resolutionCache.resolve(key, resolver);
+    }
+    
+    private void remapParameter(SimpleName node, IVariableBinding binding) {
+        IMethodBinding method = binding.getDeclaringMethod();
+        if (method == null || method.isConstructor()) {
+            // Constructors may have synthetic parameters that shift the local variable indices
             return;
         }
+        method = method.getMethodDeclaration();
         
-        FieldMapping mapping = classMapping.computeFieldMapping(convertSignature(binding)).orElse(
-            null);
-        if (mapping == null) {
+        ASTNode declaration = this.context.getCompilationUnit().findDeclaringNode(binding);
+        if (!(declaration instanceof SingleVariableDeclaration) ||
+            !(declaration.getParent() instanceof MethodDeclaration)
+        ) {
+            // Lambda and catch clause parameters
+            return;
+        }
+        MethodDeclaration methodDeclaration = (MethodDeclaration) declaration.getParent();
+        
+        int position = methodDeclaration.parameters().indexOf(declaration);
+        int index = Modifier.isStatic(method.getModifiers()) ? 0 : 1;
+        ITypeBinding[] parameterTypes = method.getParameterTypes();
+        for (int i = 0; i < position; i++) {
+            String typeName = parameterTypes[i].getName();
+            index += typeName.equals("long") || typeName.equals("double") ? 2 : 1;
+        }
+        
+        String newName = findParameterName(method, index);
+        if (newName == null || newName.equals(node.getIdentifier())) {
+            return;
+        }
+        
+        // Do not let the parameter shadow a field or variable that the method uses,
+        // with the names fields get from the mapping, not only the names they have now
+        Set<String> usedNames = this.methodNames.computeIfAbsent(methodDeclaration, m -> {
+            Set<String> names = new HashSet<>();
+            m.accept(new ASTVisitor() {
+                @Override
+                public boolean visit(SimpleName name) {
+                    names.add(name.getIdentifier());
+                    IBinding nameBinding = name.resolveBinding();
+                    if (nameBinding instanceof IVariableBinding) {
+                        IVariableBinding variable = ((IVariableBinding) nameBinding).getVariableDeclaration();
+                        if (variable.isField()) {
+                            String fieldName = resolve(variable, () -> resolveField(variable));
+                            if (fieldName != null) {
+                                names.add(fieldName);
+                            }
+                        }
+                    }
+                    return false;
+                }
+            });
+            return names;
+        });
+        if (usedNames.contains(newName)) {
             return;
         }
         
-        updateIdentifier(node, mapping.getDeobfuscatedName());
+        updateIdentifier(node, newName);
+    }
+    
+    private String findParameterName(IMethodBinding method, int index) {
+        String key = method.getKey();
+        if (key == null) {
+            return searchParameterName(method, index);
+        }
+        return this.resolutionCache.resolve("parameter:" + index + ":" + key, () -> searchParameterName(method, index));
+    }
+    
+    /**
+     * Parameter names are only mapped on the method that declares them in the game,
+     * so overriding methods look through their supertypes.
+     */
+    private String searchParameterName(IMethodBinding method, int index) {
+        MethodSignature signature = convertSignature(method);
+        
+        Deque<ITypeBinding> queue = new ArrayDeque<>();
+        Set<String> visited = new HashSet<>();
+        queue.add(method.getDeclaringClass());
+        while (!queue.isEmpty()) {
+            ITypeBinding type = queue.poll().getErasure();
+            if (!visited.add(type.getBinaryName())) {
+                continue;
+            }
+            
+            ClassMapping<?, ?> classMapping = this.mappings.getClassMapping(type.getBinaryName()).orElse(null);
+            if (classMapping != null) {
+                String name = classMapping.getMethodMapping(signature)
+                    .flatMap(mapping -> mapping.getParameterMapping(index))
+                    .map(Mapping::getDeobfuscatedName)
+                    .orElse(null);
+                if (name != null) {
+                    return name;
+                }
+            }
+            
+            if (type.getSuperclass() != null) {
+                queue.add(type.getSuperclass());
+            }
+            queue.addAll(Arrays.asList(type.getInterfaces()));
+        }
+        
+        return null;
     }
     
     protected void visit(SimpleName node, IBinding binding) {
         switch (binding.getKind()) {
             case IBinding.METHOD:
-                remapMethod(node, ((IMethodBinding) binding).getMethodDeclaration());
+                IMethodBinding method = ((IMethodBinding) binding).getMethodDeclaration();
+                if (method.isConstructor()) {
+                    referenceClass(method.getDeclaringClass().getBinaryName());
+                }
+                else {
+                    this.referencedSymbols.add(MappingDiff.methodKey(method.getName()));
+                }
+                remapMethod(node, method);
                 break;
             case IBinding.VARIABLE:
-                remapField(node, ((IVariableBinding) binding).getVariableDeclaration());
+                IVariableBinding variable = ((IVariableBinding) binding).getVariableDeclaration();
+                if (variable.isParameter()) {
+                    if (variable.getDeclaringMethod() != null) {
+                        this.referencedSymbols.add(MappingDiff.methodKey(variable.getDeclaringMethod().getName()));
+                    }
+                    remapParameter(node, variable);
+                }
+                else {
+                    if (variable.isField()) {
+                        this.referencedSymbols.add(MappingDiff.fieldKey(variable.getName()));
+                    }
+                    remapField(node, variable);
+                }
                 break;
         }
     }
     
+    private static boolean isLabel(SimpleName node) {
+        ASTNode parent = node.getParent();
+        return parent instanceof LabeledStatement ||
+            parent instanceof BreakStatement ||
+            parent instanceof ContinueStatement;
+    }
+    
     @Override
     public final boolean visit(SimpleName node) {
         IBinding binding = node.resolveBinding();
         if (binding != null) {
             visit(node, binding);
         }
+        else if (!isLabel(node)) {
+            unresolvedNames.add(node.getIdentifier());
+        }
         return false;
     }
     
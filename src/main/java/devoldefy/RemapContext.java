@@ -0,0 +1,83 @@
+package devoldefy;
+
+import org.cadixdev.mercury.Mercury;
+import org.cadixdev.mercury.RewriteContext;
+import org.cadixdev.mercury.jdt.rewrite.imports.ImportRewrite;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.rewrite.ASTRewrite;
+
+import java.nio.file.Path;
+
+/**
+ * The parts of Mercury's {@link RewriteContext} that {@link MyRemapper} uses.
+ * RewriteContext can only be extended from inside Mercury, so rewrites for other
+ * targets ({@link TargetRemapContext}) implement this instead.
+ */
+interface RemapContext {
+    Mercury getMercury();
+    
+    Path getSourceFile();
+    
+    CompilationUnit getCompilationUnit();
+    
+    String getPackageName();
+    
+    void setPackageName(String packageName);
+    
+    String getQualifiedPrimaryType();
+    
+    void setPrimaryType(String primaryType);
+    
+    ASTRewrite createASTRewrite();
+    
+    ImportRewrite createImportRewrite();
+    
+    static RemapContext of(RewriteContext context) {
+        return new RemapContext() {
+            @Override
+            public Mercury getMercury() {
+                return context.getMercury();
+            }
+            
+            @Override
+            public Path getSourceFile() {
+                return context.getSourceFile();
+            }
+            
+            @Override
+            public CompilationUnit getCompilationUnit() {
+                return context.getCompilationUnit();
+            }
+            
+            @Override
+            public String getPackageName() {
+                return context.getPackageName();
+            }
+            
+            @Override
+            public void setPackageName(String packageName) {
+                context.setPackageName(packageName);
+            }
+            
+            @Override
+            public String getQualifiedPrimaryType() {
+                return context.getQualifiedPrimaryType();
+            }
+            
+            @Override
+            public void setPrimaryType(String primaryType) {
+                context.setPrimaryType(primaryType);
+            }
+            
+            @Override
+            public ASTRewrite createASTRewrite() {
+                return context.createASTRewrite();
+            }
+            
+            @Override
+            public ImportRewrite createImportRewrite() {
+                return context.createImportRewrite();
+            }
+        };
+    }
+}
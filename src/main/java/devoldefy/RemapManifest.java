@@ -0,0 +1,61 @@
+package devoldefy;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Remembers what each source file looked like when it was last remapped,
+ * so the incremental mode can skip files that did not change.
+ */
+class RemapManifest {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    
+    // The mapping of the last run, so the next run can tell which names changed since
+    String mappingFingerprint;
+    String mappingFile;
+    final Map<String, Entry> entries = new TreeMap<>();
+    
+    static class Entry {
+        String sourceHash;
+        String mappingFingerprint;
+        String classpathFingerprint;
+        String outputHash;
+        /**
+         * The mapped names the file uses, see {@link MappingDiff}.
+         */
+        Set<String> symbols;
+    }
+    
+    static RemapManifest load(File file) {
+        if (!file.exists()) {
+            return new RemapManifest();
+        }
+        
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            RemapManifest manifest = GSON.fromJson(reader, RemapManifest.class);
+            return manifest != null ? manifest : new RemapManifest();
+        }
+        catch (IOException | JsonParseException e) {
+            System.err.println("Cannot read remap manifest, remapping everything. " + e);
+            return new RemapManifest();
+        }
+    }
+    
+    void save(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            GSON.toJson(this, writer);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package devoldefy;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.cadixdev.mercury.Mercury;
+import org.cadixdev.mercury.SourceContext;
+import org.cadixdev.mercury.SourceProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects wall time, CPU time and allocated bytes per phase of a run and writes them as JSON.
+ * Phases that run on several worker threads add up the time of all threads.
+ */
+class RemapReport {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+    
+    static class Phase {
+        String name;
+        int calls;
+        long files;
+        double wallMillis;
+        double cpuMillis;
+        long allocatedBytes;
+        double filesPerSecond;
+        
+        transient long wallNanos;
+        transient long cpuNanos;
+    }
+    
+    private static class Report {
+        long finishedAt;
+        double totalWallMillis;
+        List<Phase> phases;
+    }
+    
+    interface Action<T> {
+        T run() throws Exception;
+    }
+    
+    /**
+     * Measures the current thread until the timer is closed.
+     */
+    class Timer implements AutoCloseable {
+        private final String phase;
+        private final long wall = System.nanoTime();
+        private final long cpu = cpuTime();
+        private final long allocated = allocatedBytes();
+        private long files;
+        
+        private Timer(String phase) {
+            this.phase = phase;
+        }
+        
+        void addFiles(long count) {
+            files += count;
+        }
+        
+        @Override
+        public void close() {
+            record(
+                phase,
+                System.nanoTime() - wall,
+                cpuTime() - cpu,
+                allocatedBytes() - allocated,
+                files
+            );
+        }
+    }
+    
+    Timer start(String phase) {
+        return new Timer(phase);
+    }
+    
+    <T> T time(String phase, Action<T> action) throws Exception {
+        try (Timer ignored = start(phase)) {
+            return action.run();
+        }
+    }
+    
+    synchronized void record(String name, long wallNanos, long cpuNanos, long allocatedBytes, long files) {
+        Phase phase = phases.computeIfAbsent(name, k -> {
+            Phase p = new Phase();
+            p.name = k;
+            return p;
+        });
+        phase.calls++;
+        phase.files += files;
+        phase.wallNanos += wallNanos;
+        phase.cpuNanos += cpuNanos;
+        phase.allocatedBytes += allocatedBytes;
+    }
+    
+    /**
+     * Wraps Mercury processors so the time spent inside each of them is reported as its own phase,
+     * and everything Mercury does between them (parsing, resolving bindings and writing the
+     * output) is reported as "mercury".
+     */
+    List<SourceProcessor> instrument(List<SourceProcessor> processors) {
+        MercuryProbe probe = new MercuryProbe();
+        List<SourceProcessor> result = new ArrayList<>();
+        for (int i = 0; i < processors.size(); i++) {
+            result.add(new TimedProcessor(processors.get(i), probe, i == 0, i == processors.size() - 1));
+        }
+        return result;
+    }
+    
+    synchronized void save(File file) throws IOException {
+        Report report = new Report();
+        report.finishedAt = System.currentTimeMillis();
+        report.totalWallMillis = (System.nanoTime() - startNanos) / 1e6;
+        report.phases = new ArrayList<>(phases.values());
+        for (Phase phase : report.phases) {
+            phase.wallMillis = phase.wallNanos / 1e6;
+            phase.cpuMillis = phase.cpuNanos / 1e6;
+            phase.filesPerSecond = phase.files > 0 && phase.wallNanos > 0 ?
+                phase.files * 1e9 / phase.wallNanos : 0;
+        }
+        
+        file.getParentFile().mkdirs();
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            GSON.toJson(report, writer);
+        }
+        System.out.println("Wrote timing report " + file);
+    }
+    
+    private static long cpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+    
+    private static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(
+                Thread.currentThread().getId()
+            );
+        }
+        return 0;
+    }
+    
+    /**
+     * Measures the gaps between the processors of one Mercury run.
+     * Mercury runs all processors of a run on the same thread.
+     */
+    private class MercuryProbe {
+        private Timer gap;
+        
+        void resume() {
+            gap = start("mercury");
+        }
+        
+        void pause() {
+            if (gap != null) {
+                gap.close();
+                gap = null;
+            }
+        }
+    }
+    
+    private class TimedProcessor implements SourceProcessor {
+        private final SourceProcessor delegate;
+        private final MercuryProbe probe;
+        private final boolean first;
+        private final boolean last;
+        private final String phase;
+        
+        TimedProcessor(SourceProcessor delegate, MercuryProbe probe, boolean first, boolean last) {
+            this.delegate = delegate;
+            this.probe = probe;
+            this.first = first;
+            this.last = last;
+            this.phase = "processor:" + delegate.getClass().getSimpleName();
+        }
+        
+        @Override
+        public int getFlags() {
+            return delegate.getFlags();
+        }
+        
+        @Override
+        public void initialize(Mercury mercury) throws Exception {
+            delegate.initialize(mercury);
+            if (last) {
+                probe.resume();
+            }
+        }
+        
+        @Override
+        public void process(SourceContext context) throws Exception {
+            if (first) {
+                probe.pause();
+            }
+            try (Timer timer = start(phase)) {
+                timer.addFiles(1);
+                delegate.process(context);
+            }
+            if (last) {
+                probe.resume();
+            }
+        }
+        
+        @Override
+        public void finish(Mercury mercury) throws Exception {
+            if (first) {
+                probe.pause();
+            }
+            delegate.finish(mercury);
+        }
+    }
+}
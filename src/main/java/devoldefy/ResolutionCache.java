@@ -0,0 +1,41 @@
+package devoldefy;
+
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.cadixdev.lorenz.model.ClassMapping;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Remembers work that only depends on the mapping set, so it is done once per run
+ * instead of once per reference. Shared by all compilation units of a remapper.
+ */
+class ResolutionCache {
+    private static final String NO_MAPPING = new String("<no mapping>");
+    
+    private final Map<String, Boolean> completedClasses = new ConcurrentHashMap<>();
+    private final Map<String, String> resolvedNames = new ConcurrentHashMap<>();
+    
+    /**
+     * Completes the class mapping with inherited members, unless that was done already.
+     */
+    void complete(ClassMapping<?, ?> classMapping, InheritanceProvider provider, Object context) {
+        completedClasses.computeIfAbsent(classMapping.getFullObfuscatedName(), name -> {
+            classMapping.complete(provider, context);
+            return Boolean.TRUE;
+        });
+    }
+    
+    /**
+     * Returns the new name of the member with the given binding key, or null if it has no mapping.
+     */
+    String resolve(String bindingKey, Supplier<String> resolver) {
+        String name = resolvedNames.get(bindingKey);
+        if (name == null) {
+            name = resolver.get();
+            resolvedNames.put(bindingKey, name != null ? name : NO_MAPPING);
+        }
+        return name == NO_MAPPING ? null : name;
+    }
+}
@@ -0,0 +1,272 @@
+package devoldefy;
+
+import org.cadixdev.mercury.Mercury;
+import org.cadixdev.mercury.SourceProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs Mercury over subsets of a source tree.
+ * Every shard gets its own Mercury instance, but the rest of the source tree stays on
+ * the source path so bindings still resolve against all of it.
+ */
+class ShardedRemapper {
+    private final List<Path> classpath;
+    private final Supplier<List<SourceProcessor>> processorFactory;
+    private final int threads;
+    private final int batchSize;
+    private final Path stagingRoot;
+    
+    /**
+     * @param processorFactory called once per worker thread, the processors are
+     *                         reused for all shards of that worker
+     * @param batchSize        if positive, no shard has more files than this
+     */
+    ShardedRemapper(
+        List<Path> classpath,
+        Supplier<List<SourceProcessor>> processorFactory,
+        int threads,
+        int batchSize,
+        Path stagingRoot
+    ) {
+        this.classpath = classpath;
+        this.processorFactory = processorFactory;
+        this.threads = Math.max(1, threads);
+        this.batchSize = batchSize;
+        this.stagingRoot = stagingRoot;
+    }
+    
+    void remapAll(Path sourceRoot, Path target) throws Exception {
+        if (threads == 1 && batchSize <= 0) {
+            Mercury mercury = createMercury(processorFactory.get());
+            mercury.rewrite(sourceRoot, target);
+            return;
+        }
+        
+        remapFiles(sourceRoot, listSourceFiles(sourceRoot), target);
+    }
+    
+    /**
+     * Remaps only the given source files (relative to sourceRoot).
+     */
+    void remapFiles(Path sourceRoot, Collection<String> files, Path target) throws Exception {
+        if (Files.exists(stagingRoot)) {
+            Devoldefy.deleteDirectory(stagingRoot);
+        }
+        
+        if (files.isEmpty()) {
+            return;
+        }
+        
+        List<List<String>> shards;
+        if (batchSize > 0) {
+            shards = batches(files, batchSize);
+        }
+        else if (threads == 1) {
+            remapShard(sourceRoot, files, target, stagingRoot, processorFactory.get());
+            return;
+        }
+        else {
+            // A few more shards than threads so one big package does not leave the other workers idle
+            shards = partition(sourceRoot, files, threads * 2);
+        }
+        System.out.println("Remapping " + files.size() + " files in " + shards.size() +
+            " shards on " + threads + " threads");
+        
+        ThreadLocal<List<SourceProcessor>> workerProcessors = ThreadLocal.withInitial(processorFactory);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < shards.size(); i++) {
+                List<String> shard = shards.get(i);
+                Path stagingDir = stagingRoot.resolve("shard_" + i);
+                futures.add(executor.submit(() -> {
+                    remapShard(sourceRoot, shard, target, stagingDir, workerProcessors.get());
+                    return null;
+                }));
+            }
+            
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                }
+                catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : e;
+                }
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    private void remapShard(
+        Path sourceRoot,
+        Collection<String> files,
+        Path target,
+        Path stagingDir,
+        List<SourceProcessor> processors
+    ) throws Exception {
+        Path filesDir = stagingDir.resolve("files");
+        for (String file : files) {
+            Path staged = filesDir.resolve(file);
+            Files.createDirectories(staged.getParent());
+            Files.copy(sourceRoot.resolve(file), staged);
+        }
+        
+        // The shard's own files must not be on the source path a second time,
+        // or JDT may bind to either copy of their types
+        Path sourcePathDir = stagingDir.resolve("sourcepath");
+        Set<String> excludedDirectories = new HashSet<>();
+        for (String file : files) {
+            for (int slash = file.lastIndexOf('/'); slash != -1; slash = file.lastIndexOf('/', slash - 1)) {
+                excludedDirectories.add(file.substring(0, slash));
+            }
+        }
+        mirrorExcept(sourceRoot, sourcePathDir, "", new HashSet<>(files), excludedDirectories);
+        
+        Mercury mercury = createMercury(processors);
+        mercury.getSourcePath().add(sourcePathDir);
+        mercury.rewrite(filesDir, target);
+        
+        Devoldefy.deleteDirectory(stagingDir);
+    }
+    
+    /**
+     * Links everything in the source directory into the mirror, except the given files.
+     * Directories without excluded files are linked as a whole.
+     *
+     * @param excludedDirectories the directories that contain excluded files, relative to the source root
+     */
+    private static void mirrorExcept(
+        Path source,
+        Path mirror,
+        String relative,
+        Set<String> excludedFiles,
+        Set<String> excludedDirectories
+    ) throws IOException {
+        Files.createDirectories(mirror);
+        List<Path> children;
+        try (Stream<Path> list = Files.list(source)) {
+            children = list.collect(Collectors.toList());
+        }
+        
+        for (Path child : children) {
+            String name = child.getFileName().toString();
+            String childRelative = relative.isEmpty() ? name : relative + '/' + name;
+            if (Files.isDirectory(child) && excludedDirectories.contains(childRelative)) {
+                mirrorExcept(child, mirror.resolve(name), childRelative, excludedFiles, excludedDirectories);
+            }
+            else if (!excludedFiles.contains(childRelative)) {
+                link(child, mirror.resolve(name));
+            }
+        }
+    }
+    
+    private static void link(Path existing, Path link) throws IOException {
+        try {
+            Files.createSymbolicLink(link, existing.toAbsolutePath());
+        }
+        catch (UnsupportedOperationException | IOException e) {
+            // Windows only allows symbolic links with extra privileges
+            if (Files.isDirectory(existing)) {
+                Devoldefy.syncDirectory(existing, link, false);
+            }
+            else {
+                Files.copy(existing, link);
+            }
+        }
+    }
+    
+    private Mercury createMercury(List<SourceProcessor> processors) {
+        Mercury mercury = new Mercury();
+        mercury.getClassPath().addAll(classpath);
+        mercury.setGracefulClasspathChecks(true);
+        mercury.getProcessors().addAll(processors);
+        return mercury;
+    }
+    
+    /**
+     * Groups files by package and spreads the packages over the shards,
+     * largest first, so that every shard gets a similar amount of source code.
+     */
+    static List<List<String>> partition(Path sourceRoot, Collection<String> files, int shardCount) {
+        Map<String, List<String>> packages = new TreeMap<>();
+        Map<String, Long> packageSizes = new HashMap<>();
+        for (String file : files) {
+            int slash = file.lastIndexOf('/');
+            String packageName = slash == -1 ? "" : file.substring(0, slash);
+            packages.computeIfAbsent(packageName, k -> new ArrayList<>()).add(file);
+            packageSizes.merge(packageName, sizeOf(sourceRoot.resolve(file)), Long::sum);
+        }
+        
+        List<String> packageOrder = new ArrayList<>(packages.keySet());
+        packageOrder.sort(Comparator.comparing(packageSizes::get).reversed());
+        
+        int count = Math.max(1, Math.min(shardCount, packages.size()));
+        List<List<String>> shards = new ArrayList<>();
+        long[] shardSizes = new long[count];
+        for (int i = 0; i < count; i++) {
+            shards.add(new ArrayList<>());
+        }
+        
+        for (String packageName : packageOrder) {
+            int smallest = 0;
+            for (int i = 1; i < count; i++) {
+                if (shardSizes[i] < shardSizes[smallest]) {
+                    smallest = i;
+                }
+            }
+            shards.get(smallest).addAll(packages.get(packageName));
+            shardSizes[smallest] += packageSizes.get(packageName);
+        }
+        
+        return shards;
+    }
+    
+    /**
+     * Cuts the files into batches of at most batchSize, keeping files of a package together
+     * as far as possible, since they tend to reference each other.
+     */
+    static List<List<String>> batches(Collection<String> files, int batchSize) {
+        List<String> sorted = new ArrayList<>(files);
+        Collections.sort(sorted);
+        
+        List<List<String>> batches = new ArrayList<>();
+        for (int i = 0; i < sorted.size(); i += batchSize) {
+            batches.add(new ArrayList<>(sorted.subList(i, Math.min(sorted.size(), i + batchSize))));
+        }
+        return batches;
+    }
+    
+    static List<String> listSourceFiles(Path root) throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            return files
+                .filter(path -> path.toString().endsWith(".java"))
+                .map(path -> root.relativize(path).toString().replace(File.separatorChar, '/'))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+    
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        }
+        catch (IOException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package devoldefy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Watches a source tree and reports changed and deleted Java files in batches.
+ */
+class SourceWatcher {
+    // Editors often write a file in several steps, so wait until it is quiet for a moment
+    private static final long QUIET_MILLIS = 200;
+    
+    interface Handler {
+        /**
+         * @param changed files that were created or modified, relative to the root
+         * @param deleted files that were deleted, relative to the root
+         */
+        void handle(Set<String> changed, Set<String> deleted) throws Exception;
+    }
+    
+    private final Path root;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    
+    SourceWatcher(Path root) throws IOException {
+        this.root = root;
+        this.watchService = root.getFileSystem().newWatchService();
+        registerAll(root);
+    }
+    
+    /**
+     * Blocks and calls the handler for every batch of changes until the thread is interrupted.
+     */
+    void run(Handler handler) throws Exception {
+        System.out.println("Watching " + root + " for changes");
+        try {
+            while (true) {
+                Set<String> touched = new TreeSet<>();
+                WatchKey key = watchService.take();
+                while (key != null) {
+                    collect(key, touched);
+                    key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                
+                Set<String> changed = new TreeSet<>();
+                Set<String> deleted = new TreeSet<>();
+                for (String file : touched) {
+                    if (Files.isRegularFile(root.resolve(file))) {
+                        changed.add(file);
+                    }
+                    else {
+                        deleted.add(file);
+                    }
+                }
+                
+                if (!changed.isEmpty() || !deleted.isEmpty()) {
+                    try {
+                        handler.handle(changed, deleted);
+                    }
+                    catch (Exception e) {
+                        // Keep watching, the next save may fix it
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            watchService.close();
+        }
+    }
+    
+    private void collect(WatchKey key, Set<String> touched) throws IOException {
+        Path directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                // Events were lost, so look at everything again
+                touched.addAll(ShardedRemapper.listSourceFiles(root));
+                continue;
+            }
+            
+            Path path = directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                registerAll(path);
+                try (Stream<Path> files = Files.walk(path)) {
+                    files.filter(file -> file.toString().endsWith(".java"))
+                        .forEach(file -> touched.add(relativize(file)));
+                }
+            }
+            else if (path.toString().endsWith(".java")) {
+                touched.add(relativize(path));
+            }
+        }
+        
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+    
+    private String relativize(Path file) {
+        return root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+    
+    private void registerAll(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(
+                    watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE
+                );
+                directories.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,24 @@
+package devoldefy;
+
+/**
+ * A fixed number of locks that keys are spread over. Unlike a map of locks by key,
+ * it does not grow with every key that was ever locked, at the cost of some keys sharing a lock.
+ */
+class StripedLocks {
+    private final Object[] locks;
+    
+    /**
+     * @param stripes the number of locks, a power of two
+     */
+    StripedLocks(int stripes) {
+        locks = new Object[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new Object();
+        }
+    }
+    
+    Object get(Object key) {
+        int hash = key.hashCode();
+        return locks[(hash ^ hash >>> 16) & (locks.length - 1)];
+    }
+}
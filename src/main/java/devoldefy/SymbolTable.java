@@ -0,0 +1,23 @@
+package devoldefy;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Deduplicates the class names and descriptors shared by many mapping entries.
+ */
+class SymbolTable {
+    private final Map<String, String> symbols = new ConcurrentHashMap<>();
+    
+    String intern(String symbol) {
+        if (symbol == null) {
+            return null;
+        }
+        String existing = symbols.putIfAbsent(symbol, symbol);
+        return existing != null ? existing : symbol;
+    }
+    
+    Member member(String owner, String name, String descriptor) {
+        return new Member(intern(owner), name, intern(descriptor));
+    }
+}
@@ -0,0 +1,106 @@
+package devoldefy;
+
+import org.cadixdev.mercury.Mercury;
+import org.cadixdev.mercury.SourceContext;
+import org.cadixdev.mercury.jdt.rewrite.imports.ImportRewrite;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.PackageDeclaration;
+import org.eclipse.jdt.core.dom.rewrite.ASTRewrite;
+import org.eclipse.jface.text.Document;
+import org.eclipse.text.edits.TextEdit;
+
+import java.nio.file.Path;
+
+/**
+ * A second, independent set of rewrites on a compilation unit that Mercury already parsed and bound.
+ */
+class TargetRemapContext implements RemapContext {
+    private final SourceContext parent;
+    private String packageName;
+    private String primaryType;
+    private ASTRewrite rewrite;
+    private ImportRewrite importRewrite;
+    
+    TargetRemapContext(SourceContext parent) {
+        this.parent = parent;
+        
+        // The parent's package name may already be the one of the main target, the declaration is still the original
+        PackageDeclaration declaration = parent.getCompilationUnit().getPackage();
+        this.packageName = declaration == null ? "" : declaration.getName().getFullyQualifiedName();
+        String fileName = parent.getSourceFile().getFileName().toString();
+        this.primaryType = fileName.substring(0, fileName.length() - ".java".length());
+    }
+    
+    @Override
+    public Mercury getMercury() {
+        return parent.getMercury();
+    }
+    
+    @Override
+    public Path getSourceFile() {
+        return parent.getSourceFile();
+    }
+    
+    @Override
+    public CompilationUnit getCompilationUnit() {
+        return parent.getCompilationUnit();
+    }
+    
+    @Override
+    public String getPackageName() {
+        return packageName;
+    }
+    
+    @Override
+    public void setPackageName(String packageName) {
+        this.packageName = packageName;
+    }
+    
+    @Override
+    public String getQualifiedPrimaryType() {
+        return packageName.isEmpty() ? primaryType : packageName + '.' + primaryType;
+    }
+    
+    @Override
+    public void setPrimaryType(String primaryType) {
+        this.primaryType = primaryType;
+    }
+    
+    @Override
+    public ASTRewrite createASTRewrite() {
+        if (rewrite == null) {
+            rewrite = ASTRewrite.create(getCompilationUnit().getAST());
+        }
+        return rewrite;
+    }
+    
+    @Override
+    public ImportRewrite createImportRewrite() {
+        if (importRewrite == null) {
+            importRewrite = ImportRewrite.create(getCompilationUnit(), true);
+        }
+        return importRewrite;
+    }
+    
+    /**
+     * @return the original source with the rewrites of this context applied
+     */
+    String apply(String source) throws Exception {
+        Document document = new Document(source);
+        TextEdit edit = rewrite != null ? rewrite.rewriteAST(document, null) : null;
+        if (importRewrite != null) {
+            TextEdit importEdit = importRewrite.rewriteImports(null);
+            if (edit == null) {
+                edit = importEdit;
+            }
+            else {
+                edit.addChild(importEdit);
+            }
+        }
+        
+        if (edit != null) {
+            edit.apply(document);
+        }
+        return document.get();
+    }
+}
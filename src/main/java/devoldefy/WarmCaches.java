@@ -0,0 +1,91 @@
+package devoldefy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps loaded mappings and class hierarchy indexes in memory between runs of the daemon.
+ * Disabled unless {@link #enable(int)} was called, then every lookup just loads.
+ */
+class WarmCaches {
+    private static volatile LruCache<String, LazyMappingSet.Index> mappings;
+    private static volatile LruCache<String, ClassHierarchyIndex> hierarchies;
+    private static final StripedLocks LOAD_LOCKS = new StripedLocks(64);
+    
+    interface Loader<T> {
+        T load() throws IOException;
+    }
+    
+    /**
+     * @param capacity how many mappings and how many hierarchy indexes are kept at most
+     */
+    static synchronized void enable(int capacity) {
+        mappings = new LruCache<>(capacity);
+        hierarchies = new LruCache<>(capacity);
+    }
+    
+    /**
+     * Mapping sets are mutated while remapping, so the immutable index they are built from is what gets kept.
+     */
+    static LazyMappingSet.Index mappingIndex(File mappingFile, Loader<LazyMappingSet.Index> loader) throws IOException {
+        if (mappings == null) {
+            return loader.load();
+        }
+        
+        // The file is rewritten when the mapping is rebuilt, so its size and modification time are part of the key
+        String key = mappingFile.getAbsolutePath() + "|" + mappingFile.length() + "|" + mappingFile.lastModified();
+        return get(mappings, key, loader);
+    }
+    
+    static ClassHierarchyIndex hierarchy(List<Path> classpath, Loader<ClassHierarchyIndex> loader) throws IOException {
+        if (hierarchies == null) {
+            return loader.load();
+        }
+        
+        // Jars can be replaced in place, e.g. by a rebuilt project, so their size and modification time are part of the key
+        StringBuilder key = new StringBuilder();
+        for (Path jar : classpath) {
+            key.append(jar.toAbsolutePath()).append('|').append(ClassHierarchyIndex.stamp(jar)).append('\n');
+        }
+        return get(hierarchies, key.toString(), loader);
+    }
+    
+    private static <K, V> V get(LruCache<K, V> cache, K key, Loader<V> loader) throws IOException {
+        if (cache == null) {
+            return loader.load();
+        }
+        
+        // Loading happens outside the cache lock, so jobs of a batch can load different keys at the same time
+        synchronized (LOAD_LOCKS.get(key)) {
+            V value;
+            synchronized (cache) {
+                value = cache.get(key);
+            }
+            if (value == null) {
+                value = loader.load();
+                synchronized (cache) {
+                    cache.put(key, value);
+                }
+            }
+            return value;
+        }
+    }
+    
+    private static class LruCache<K, V> extends LinkedHashMap<K, V> {
+        private final int capacity;
+        
+        LruCache(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > capacity;
+        }
+    }
+}
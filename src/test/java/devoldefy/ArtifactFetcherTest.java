@@ -0,0 +1,32 @@
+package devoldefy;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class ArtifactFetcherTest {
+    private final File directory = new File("cache");
+    private final ArtifactFetcher fetcher = new ArtifactFetcher(directory, null);
+    
+    @Test
+    public void keepsFilesWithTheSameNameApart() {
+        File a = fetcher.cacheFile(
+            "https://raw.githubusercontent.com/MinecraftForge/MCPConfig/master/versions/release/1.14.4/joined.tsrg"
+        );
+        File b = fetcher.cacheFile(
+            "https://raw.githubusercontent.com/MinecraftForge/MCPConfig/master/versions/release/1.15.2/joined.tsrg"
+        );
+        
+        assertFalse(a.equals(b));
+        assertEquals("joined.tsrg", a.getName());
+    }
+    
+    @Test
+    public void staysInsideTheDirectory() {
+        File file = fetcher.cacheFile("http://example.com/a/../../../b.jar");
+        
+        assertEquals(new File(new File(directory, "example.com"), "b.jar"), file);
+    }
+}
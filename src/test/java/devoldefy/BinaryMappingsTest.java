@@ -0,0 +1,67 @@
+package devoldefy;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class BinaryMappingsTest {
+    @Test
+    public void roundTripsTinyV2WithParameters() throws IOException {
+        String tiny =
+            "tiny\t2\t0\tofficial\tintermediary\tnamed\n" +
+                "c\taio\tnet/minecraft/class_1297\tnet/minecraft/entity/Entity\n" +
+                "\tf\tLaio;\tc\tfield_2\tvehicle\n" +
+                "\tm\t(Laio;[I)Laio;\ta\tmethod_1\tstartRiding\n" +
+                "\t\tp\t1\t\t\tvehicle\n" +
+                "\t\tp\t2\t\t\tids\n" +
+                "c\taio$a\tnet/minecraft/class_1297$class_1\tnet/minecraft/entity/Entity$RemovalReason\n";
+        Mappings mappings = Devoldefy.readYarnV2(
+            new ByteArrayInputStream(tiny.getBytes(StandardCharsets.UTF_8)),
+            "official",
+            "named",
+            new SymbolTable()
+        );
+        
+        File file = Files.createTempFile("mappings", ".bin").toFile();
+        try {
+            int classCount = BinaryMappings.write(file, mappings::accept);
+            assertEquals(2, classCount);
+            
+            Mappings read = new Mappings();
+            BinaryMappings.read(file, read);
+            
+            assertEquals(mappings.classes, read.classes);
+            assertEquals(mappings.fields, read.fields);
+            assertEquals(mappings.methods, read.methods);
+            assertEquals(mappings.parameters, read.parameters);
+            assertEquals(2, read.parameters.values().iterator().next().size());
+        }
+        finally {
+            file.delete();
+        }
+    }
+    
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+        File file = Files.createTempFile("mappings", ".bin").toFile();
+        try {
+            Files.write(file.toPath(), "tiny\t2\t0".getBytes(StandardCharsets.UTF_8));
+            try {
+                BinaryMappings.verify(file);
+                fail("Read a file that is not a mapping cache");
+            }
+            catch (IOException expected) {
+                // the file is rebuilt in this case
+            }
+        }
+        finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package devoldefy;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class DescriptorRemapperTest {
+    private final Map<String, String> classes = new HashMap<>();
+    
+    {
+        classes.put("a", "net/minecraft/entity/Entity");
+        classes.put("b", "net/minecraft/world/World");
+        classes.put("c", "c");
+    }
+    
+    @Test
+    public void remapsParametersArraysAndReturnType() {
+        assertEquals(
+            "([[Lnet/minecraft/entity/Entity;IJ[Lnet/minecraft/world/World;)[Lnet/minecraft/entity/Entity;",
+            DescriptorRemapper.remap("([[La;IJ[Lb;)[La;", classes)
+        );
+        assertEquals("Lnet/minecraft/world/World;", DescriptorRemapper.remap("Lb;", classes));
+    }
+    
+    @Test
+    public void keepsUnknownClassesAndPrimitives() {
+        assertEquals(
+            "(Ljava/lang/String;ZLc;)Lnet/minecraft/world/World;",
+            DescriptorRemapper.remap("(Ljava/lang/String;ZLc;)Lb;", classes)
+        );
+    }
+    
+    @Test
+    public void returnsTheSameInstanceWhenNothingIsRenamed() {
+        String descriptor = "([ILjava/lang/Object;Lc;)V";
+        assertTrue(descriptor == DescriptorRemapper.remap(descriptor, classes));
+        assertTrue(descriptor == new DescriptorRemapper(classes).remap(descriptor));
+    }
+    
+    @Test
+    public void cachedResultsMatch() {
+        DescriptorRemapper remapper = new DescriptorRemapper(classes, 1);
+        String first = remapper.remap("(La;)V");
+        remapper.remap("(Lb;)V");
+        assertEquals(first, remapper.remap("(La;)V"));
+        assertEquals("(Lnet/minecraft/entity/Entity;)V", first);
+        assertNull(remapper.remap(null));
+    }
+}
@@ -0,0 +1,69 @@
+package devoldefy;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class MappingTokenizerTest {
+    private static MappingTokenizer csv(String text) {
+        return new MappingTokenizer(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), ',', true);
+    }
+    
+    private static String[] fields(MappingTokenizer t) {
+        String[] fields = new String[t.fieldCount()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = t.field(i);
+        }
+        return fields;
+    }
+    
+    @Test
+    public void readsQuotedFields() throws IOException {
+        try (MappingTokenizer t = csv("field_1_a,a,2,\"A field, with a comma\"\n")) {
+            assertTrue(t.nextLine());
+            assertArrayEquals(new String[]{"field_1_a", "a", "2", "A field, with a comma"}, fields(t));
+            assertFalse(t.nextLine());
+        }
+    }
+    
+    @Test
+    public void readsEscapedQuotesAndLineBreaksInQuotedFields() throws IOException {
+        try (MappingTokenizer t = csv("func_2_b,b,0,\"Says \"\"hi\"\",\nthen stops\"\r\nfunc_3_c,c,0,\n")) {
+            assertTrue(t.nextLine());
+            assertArrayEquals(new String[]{"func_2_b", "b", "0", "Says \"hi\",\nthen stops"}, fields(t));
+            assertTrue(t.nextLine());
+            assertArrayEquals(new String[]{"func_3_c", "c", "0", ""}, fields(t));
+            assertFalse(t.nextLine());
+        }
+    }
+    
+    @Test
+    public void quoteInsideUnquotedFieldDoesNotJoinLines() throws IOException {
+        try (MappingTokenizer t = csv("field_4_d,d,2,Is 5\" long\nfield_5_e,e,2,\n")) {
+            assertTrue(t.nextLine());
+            assertArrayEquals(new String[]{"field_4_d", "d", "2", "Is 5\" long"}, fields(t));
+            assertTrue(t.nextLine());
+            assertEquals("field_5_e", t.field(0));
+            assertFalse(t.nextLine());
+        }
+    }
+    
+    @Test
+    public void reportsLeadingTabsAsIndent() throws IOException {
+        try (MappingTokenizer t = new MappingTokenizer(
+            new ByteArrayInputStream("c\ta\tb\n\t\tp\t1\t\tname\n".getBytes(StandardCharsets.UTF_8)),
+            '\t',
+            false
+        )) {
+            assertTrue(t.nextLine());
+            assertEquals(0, t.indent());
+            assertTrue(t.nextLine());
+            assertEquals(2, t.indent());
+            assertArrayEquals(new String[]{"p", "1", "", "name"}, fields(t));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package devoldefy;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class YarnMappingsTest {
+    // The start of mappings/mappings.tiny in yarn-1.15.2+build.1-v2.jar
+    private static final String V2 =
+        "tiny\t2\t0\tintermediary\tnamed\n" +
+            "c\tnet/minecraft/class_1297\tnet/minecraft/entity/Entity\n" +
+            "\tm\t()V\tmethod_5773\ttick\n";
+    
+    // The same mappings in yarn-1.15.2+build.1-mergedv2.jar
+    private static final String MERGED_V2 =
+        "tiny\t2\t0\tofficial\tintermediary\tnamed\n" +
+            "c\taio\tnet/minecraft/class_1297\tnet/minecraft/entity/Entity\n" +
+            "\tm\t()V\tl\tmethod_5773\ttick\n";
+    
+    private static InputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    @Test
+    public void plainV2HasNoOfficialNames() throws IOException {
+        assertFalse(Devoldefy.hasTinyNamespaces(stream(V2), "official", "named"));
+        assertTrue(Devoldefy.hasTinyNamespaces(stream(V2), "intermediary", "named"));
+    }
+    
+    @Test
+    public void mergedV2HasOfficialNames() throws IOException {
+        assertTrue(Devoldefy.hasTinyNamespaces(stream(MERGED_V2), "official", "named"));
+    }
+    
+    @Test
+    public void readsMergedV2FromOfficial() throws IOException {
+        SymbolTable symbols = new SymbolTable();
+        Mappings mappings = Devoldefy.readYarnV2(stream(MERGED_V2), "official", "named", symbols);
+        
+        assertEquals("net/minecraft/entity/Entity", mappings.classes.get("aio"));
+        assertEquals(
+            symbols.member("net/minecraft/entity/Entity", "tick", "()V"),
+            mappings.methods.get(symbols.member("aio", "l", "()V"))
+        );
+    }
+    
+    @Test
+    public void readsParametersAndRemapsTargetDescriptors() throws IOException {
+        String tiny =
+            "tiny\t2\t0\tofficial\tintermediary\tnamed\n" +
+                "c\taio\tnet/minecraft/class_1297\tnet/minecraft/entity/Entity\n" +
+                "\tm\t(Laio;J)V\ta\tmethod_1\tsetTarget\n" +
+                "\t\tp\t1\t\t\ttarget\n" +
+                "\t\tp\t2\t\t\ttime\n" +
+                "\t\tp\t4\t\t\t\n" +
+                "\tf\tI\tb\tfield_1\t\n";
+        SymbolTable symbols = new SymbolTable();
+        Mappings mappings = Devoldefy.readYarnV2(stream(tiny), "official", "named", symbols);
+        
+        Member method = symbols.member("aio", "a", "(Laio;J)V");
+        assertEquals(
+            symbols.member("net/minecraft/entity/Entity", "setTarget", "(Lnet/minecraft/entity/Entity;J)V"),
+            mappings.methods.get(method)
+        );
+        assertEquals("target", mappings.parameters.get(method).get(1));
+        assertEquals("time", mappings.parameters.get(method).get(2));
+        assertEquals(2, mappings.parameters.get(method).size());
+        
+        // Empty names keep the name of the source namespace
+        assertEquals(
+            symbols.member("net/minecraft/entity/Entity", "b", null),
+            mappings.fields.get(symbols.member("aio", "b", null))
+        );
+    }
+}